@@ -25,6 +25,38 @@
 // "ask" method.  The "ask" function returns a binding list which includes
 // bindings for intermediate variables.
 //
+// Facts and rules are looked up through a "ClauseIndex", which groups
+// them by predicate and compiles each fact and rule head into a matcher.
+// A rule is only standardized apart and unified with a goal once its
+// compiled head has passed a quick match against the goal, which saves
+// copying the many rules that cannot apply.  Rules that pass the match
+// are still copied in full.  The index is built when it
+// is first needed, and it is rebuilt when clauses are added or removed.
+// If clauses are changed in place, "compile" must be called again.
+//
+// When "planning" is true, lists of goals are not proven in the order in
+// which they are written.  Instead, a "QueryPlanner" picks the goal that
+// is expected to be most selective under the current bindings before
+// each goal is proven.  It only moves goals that are already ground and
+// that can only be answered from facts, so that whenever the written
+// order terminates, the answers found are those of the written order.
+//
+// Since the search is depth-first, some rule sets make it run forever.
+// A query may instead be submitted with "QueryLimits", bounding the depth
+// of the proof, the number of goals attempted, the running time, and the
+// size of the binding list.  Such a query returns a "QueryResult" which
+// tells a search that ran out of resources apart from one that failed.
+//
+// "Rule.standardizeApart" numbers fresh variables with a counter shared
+// by every thread.  When "localRenaming" is true, rules are instead
+// copied with variables numbered by a counter belonging to this object,
+// and named with a prefix unique to this object, so that separate
+// objects may run queries in separate threads.
+//
+// An "InferenceTracer" may be attached to record what is done for each
+// predicate and to build proof trees, and each goal is reported as a
+// "GoalEvent" when that flight recorder event is enabled.
+//
 // David Noelle -- Tue Apr 10 17:08:45 PDT 2007
 //
 
@@ -35,6 +67,42 @@ import java.util.*;
 public class BackwardChain {
 
 	public KnowledgeBase kb;
+	ClauseIndex index = null;
+	QueryPlanner planner = null;
+
+	// Reorder lists of goals by estimated cost ...
+	public boolean planning = false;
+
+	// Limits on the current query, if any, and its resource use ...
+	QueryLimits limits = null;
+	long deadline = 0;
+	long steps = 0;
+	int depth = 0;
+
+	// Records of inference, if wanted ...
+	public InferenceTracer tracer = null;
+
+	// Counts kept by this object alone, since the index and planner may
+	// be shared with other threads ...
+	public long matched = 0;           // clauses that passed the match
+	public long rejected = 0;          // clauses rejected by the match
+	public long choices = 0;           // goals chosen by the planner
+	public long reordered = 0;         // choices other than the first goal
+
+	// Rename rule variables with a counter of this object's own ...
+	public boolean localRenaming = false;
+	long renamings = 0;
+	final String prefix = "_Q" + serial.incrementAndGet() + "_";
+	static final java.util.concurrent.atomic.AtomicLong serial =
+		new java.util.concurrent.atomic.AtomicLong();
+
+	// Exhausted -- Thrown to abandon a query that has run out of some
+	// resource, naming the resource ...
+	static class Exhausted extends RuntimeException {
+		Exhausted(String reason) {
+			super(reason, null, false, false);
+		}
+	}
 
 	// Default constructor ...
 	public BackwardChain() {
@@ -44,9 +112,34 @@ public class BackwardChain {
 	// initKB -- Initialize the knowledge base by interactively requesting
 	// file names and reading those files.  Return false on error.
 	public boolean initKB() {
+		index = null;
+		planner = null;
 		return (kb.readKB());
 	}
 
+	// compile -- Compile the facts and rules of the knowledge base, as
+	// they are now, into a fresh clause index, and return it.
+	public ClauseIndex compile() {
+		index = new ClauseIndex(kb);
+		return (index);
+	}
+
+	// clauses -- Return the current clause index, compiling the knowledge
+	// base if the index has not yet been built or is out of date.
+	public ClauseIndex clauses() {
+		if ((index == null) || index.stale(kb))
+			compile();
+		return (index);
+	}
+
+	// planner -- Return the query planner, gathering fresh statistics if
+	// the knowledge base has changed.
+	public QueryPlanner planner() {
+		if ((planner == null) || planner.stale(kb))
+			planner = new QueryPlanner(kb);
+		return (planner);
+	}
+
 	// unify -- Return the most general unifier for the two provided literals,
 	// or null if no unification is possible.  The returned binding list
 	// should be freshly allocated.
@@ -252,8 +345,19 @@ public class BackwardChain {
 	// to indicate failure.
 	BindingList askFacts(Literal lit, BindingList bl) {
 		BindingList mgu = null;  // Most General Unifier
-		for (Literal fact : kb.facts) {
-			mgu = unify(lit, fact, bl);
+		ClauseIndex ci = clauses();
+		Term[] frame = ci.frame();
+		for (ClauseIndex.Clause fact : ci.facts(lit.pred)) {
+			if (!fact.matches(lit, bl, frame)) {
+				rejected++;
+				if (tracer != null)
+					tracer.fact(fact.fact, false);
+				continue;
+			}
+			matched++;
+			mgu = unify(lit, fact.fact, bl);
+			if (tracer != null)
+				tracer.fact(fact.fact, mgu != null);
 			if (mgu != null)
 				return (mgu);
 		}
@@ -275,19 +379,79 @@ public class BackwardChain {
 	// no proof can be found.  The returned binding list should be freshly
 	// allocated.
 	BindingList ask(Literal goal, BindingList bl) {
+		steps++;
+		if (limits != null)
+			checkLimits(bl);
+		if ((tracer != null) || GoalEvent.type.isEnabled())
+			return (traced(goal, bl));
+		depth++;
+		try {
+			return (prove(goal, bl));
+		} finally {
+			depth--;
+		}
+	}
+
+	// traced -- Try to prove the given goal literal, as for "ask", while
+	// recording the attempt with the tracer and as a flight recorder
+	// event.
+	BindingList traced(Literal goal, BindingList bl) {
+		GoalEvent event = null;
+		if (GoalEvent.type.isEnabled()) {
+			event = new GoalEvent();
+			event.begin();
+		}
+		depth++;
+		if (tracer != null)
+			tracer.enter(goal, depth);
+		BindingList result = null;
+		try {
+			result = prove(goal, bl);
+			return (result);
+		} finally {
+			depth--;
+			if (tracer != null)
+				tracer.exit(result);
+			if (event != null) {
+				event.end();
+				if (event.shouldCommit()) {
+					event.predicate = String.valueOf(goal.pred);
+					event.depth = depth + 1;
+					event.proven = (result != null);
+					event.bindings = (result == null) ? 0
+						: result.bindings.size();
+					event.commit();
+				}
+			}
+		}
+	}
+
+	// prove -- Try to prove the given goal literal, as for "ask", without
+	// counting the attempt against any limits.
+	BindingList prove(Literal goal, BindingList bl) {
 		BindingList result = askFacts(goal, bl);
 		if (result != null) {
 			// The literal can be unified with a known fact ...
 			return (result);
 		}
-		// Need to look at rules ...
-		for (Rule candidateRule : kb.rules) {
-			if (candidateRule.consequent.pred.equals(goal.pred)) {
-				// The rule head uses the same predicate as the goal ...
+		// Need to look at rules, but only those with heads that use the
+		// same predicate as the goal ...
+		ClauseIndex ci = clauses();
+		Term[] frame = ci.frame();
+		for (ClauseIndex.Clause candidate : ci.rules(goal.pred)) {
+			// Check the compiled head before copying the rule ...
+			if (!candidate.matches(goal, bl, frame)) {
+				rejected++;
+				if (tracer != null)
+					tracer.rule(candidate.rule, false);
+			} else {
+				matched++;
 				// Standardize apart ...
-				Rule r = candidateRule.standardizeApart();
+				Rule r = standardize(candidate.rule);
 				// Check to see if the consequent unifies with the goal ...
 				result = unify(goal, r.consequent, bl);
+				if (tracer != null)
+					tracer.rule(candidate.rule, result != null);
 				if (result != null) {
 					// This rule might be part of a proof, if we can prove
 					// the rule's antecedents ...
@@ -297,6 +461,8 @@ public class BackwardChain {
 						// is proven ...
 						return (result);
 					}
+					if (tracer != null)
+						tracer.ruleFailed();
 				}
 			}
 		}
@@ -305,6 +471,48 @@ public class BackwardChain {
 		return (null);
 	}
 
+	// standardize -- Return a copy of the given rule with fresh variables.
+	Rule standardize(Rule rule) {
+		if (!localRenaming)
+			return (rule.standardizeApart());
+		renamings++;
+		List<Variable> from = new ArrayList<Variable>();
+		List<Term> to = new ArrayList<Term>();
+		Rule r = new Rule();
+		r.consequent = rename(rule.consequent, from, to);
+		r.antecedents = new ArrayList<Literal>();
+		for (Literal lit : rule.antecedents)
+			r.antecedents.add(rename(lit, from, to));
+		return (r);
+	}
+
+	// rename -- Copy a literal, replacing each variable with the fresh
+	// variable paired with it, pairing new ones as they are found.
+	Literal rename(Literal lit, List<Variable> from, List<Term> to) {
+		Literal copy = new Literal(lit.pred);
+		for (Term t : lit.args)
+			copy.args.add(rename(t, from, to));
+		return (copy);
+	}
+
+	Term rename(Term t, List<Variable> from, List<Term> to) {
+		if (t.c != null)
+			return (t);
+		if (t.v != null) {
+			int i = from.indexOf(t.v);
+			if (i < 0) {
+				i = from.size();
+				from.add(t.v);
+				to.add(new Term(new Variable(prefix + renamings + "_" + i)));
+			}
+			return (to.get(i));
+		}
+		Function f = new Function(t.f.func);
+		for (Term a : t.f.args)
+			f.args.add(rename(a, from, to));
+		return (new Term(f));
+	}
+
 	// ask -- Try to prove the given goal literal using both the list of 
 	// known facts and the collection of known rules.  Terminate as soon as 
 	// a proof is found, returning the resulting binding list for that proof.
@@ -314,6 +522,50 @@ public class BackwardChain {
 		return (ask(goal, new BindingList()));
 	}
 
+	// ask -- Try to prove the given goal literal within the given limits.
+	// The result is "exhausted" if a limit is reached, or if the query is
+	// cancelled, before the search ends.
+	public QueryResult ask(Literal goal, QueryLimits lim) {
+		long start = System.nanoTime();
+		limits = lim;
+		deadline = ((lim != null) && (lim.timeoutNanos > 0))
+			? start + lim.timeoutNanos : 0;
+		steps = 0;
+		depth = 0;
+		try {
+			BindingList bl = ask(goal, new BindingList());
+			return (new QueryResult((bl == null)
+					? QueryResult.Status.failed : QueryResult.Status.proven,
+					bl, null, steps, System.nanoTime() - start));
+		} catch (Exhausted e) {
+			return (new QueryResult(QueryResult.Status.exhausted, null,
+					e.getMessage(), steps, System.nanoTime() - start));
+		} catch (StackOverflowError e) {
+			return (new QueryResult(QueryResult.Status.exhausted, null,
+					"stack", steps, System.nanoTime() - start));
+		} finally {
+			limits = null;
+		}
+	}
+
+	// checkLimits -- Abandon the current query, by throwing "Exhausted",
+	// if it has run out of any resource.  The clock is read only every
+	// so often, since that costs more than the other checks.
+	void checkLimits(BindingList bl) {
+		if (limits.isCancelled())
+			throw new Exhausted("cancelled");
+		if ((limits.maxSteps > 0) && (steps > limits.maxSteps))
+			throw new Exhausted("steps");
+		if ((limits.maxDepth > 0) && (depth >= limits.maxDepth))
+			throw new Exhausted("depth");
+		if ((limits.maxBindings > 0) && (bl != null)
+				&& (bl.bindings.size() > limits.maxBindings))
+			throw new Exhausted("bindings");
+		if ((deadline != 0) && ((steps & 255) == 0)
+				&& (System.nanoTime() - deadline > 0))
+			throw new Exhausted("time");
+	}
+
 	// ask -- Try to prove the given list of goal literals, under the 
 	// constraints of the given binding list, using both the list of known 
 	// facts and the collection of known rules.  Terminate as soon as a proof
@@ -327,8 +579,16 @@ public class BackwardChain {
 		} else {
 			List<Literal> newGoals = new LinkedList<Literal>();
 			newGoals.addAll(goals);
-			Literal goal = newGoals.get(0);
-			newGoals.remove(0);
+			// Prove the first goal, or a cheaper ground goal when planning ...
+			int next = 0;
+			if (planning) {
+				next = planner().choose(newGoals, bl);
+				choices++;
+				if (next != 0)
+					reordered++;
+			}
+			Literal goal = newGoals.get(next);
+			newGoals.remove(next);
 			BindingList firstBL = ask(goal, bl);
 			if (firstBL == null) {
 				// Failure to prove one of the goals ...
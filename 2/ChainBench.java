@@ -0,0 +1,160 @@
+//
+// ChainBench
+//
+// This class implements a benchmark of "BackwardChain", running the
+// synthetic workloads of "Workload" at a range of sizes.  For each
+// workload and size, the queries are asked repeatedly for a warm-up
+// period and then for a measurement period, and the benchmark reports
+// the queries proven, the throughput in queries per second, the 50th,
+// 90th and 99th percentile latencies, and the bytes allocated per query.
+// The "unify" operation is also measured alone, on the first query of
+// each workload and the first fact with the same predicate.  Workloads
+// are generated from a fixed seed, so results from different versions of
+// the inference engine may be compared.
+//
+// Usage:  java ChainBench [seconds per measurement] [seed] [plan]
+//
+// Give "plan" as the third argument to turn on goal reordering.
+//
+
+
+import java.lang.management.ManagementFactory;
+import java.util.*;
+
+public class ChainBench {
+
+	// Sizes of each workload ...
+	static final int[][] sizes = {
+		{ 100, 1000, 10000 },           // facts
+		{ 10, 50, 200 },                // ancestor
+		{ 4, 16, 64 },                  // wide
+		{ 4, 16, 64 },                  // nested
+		{ 10, 100, 1000 },              // rules
+		{ 10, 100, 1000 }               // embedded
+	};
+
+	// Queries generated for each workload ...
+	static final int queries = 256;
+
+	static volatile int sink;           // consumes results
+
+	// allocatedBytes -- Return the bytes allocated so far by the current
+	// thread, or zero if that cannot be measured.
+	static long allocatedBytes() {
+		java.lang.management.ThreadMXBean bean =
+			ManagementFactory.getThreadMXBean();
+		if (bean instanceof com.sun.management.ThreadMXBean)
+			return (((com.sun.management.ThreadMXBean) bean)
+					.getThreadAllocatedBytes(Thread.currentThread().getId()));
+		return (0);
+	}
+
+	// Result -- Measurements of one workload ...
+	static class Result {
+		int proven = 0;
+		double perSecond;
+		long p50, p90, p99;
+		double bytes;
+	}
+
+	// measure -- Ask the queries of a workload repeatedly, for a warm-up
+	// period and then a measurement period.
+	static Result measure(Workload w, BackwardChain bc, double seconds) {
+		long period = (long) (seconds * 1.0e9);
+		long[] latency = new long[1 << 16];
+		Result r = new Result();
+		for (int pass = 0; pass < 2; pass++) {
+			int n = 0;
+			long ops = 0;
+			long bytes = allocatedBytes();
+			long start = System.nanoTime();
+			long stop = start + period;
+			long now = start;
+			r.proven = 0;
+			while (now < stop) {
+				for (Literal q : w.queries) {
+					long t0 = System.nanoTime();
+					BindingList bl = bc.ask(q);
+					long t1 = System.nanoTime();
+					if (n < latency.length)
+						latency[n++] = t1 - t0;
+					if (bl != null) {
+						sink++;
+						if (ops < w.queries.size())
+							r.proven++;
+					}
+					ops++;
+					now = t1;
+				}
+			}
+			bytes = allocatedBytes() - bytes;
+			if (pass == 1) {
+				Arrays.sort(latency, 0, n);
+				r.perSecond = ops * 1.0e9 / (now - start);
+				r.p50 = latency[(int) (0.50 * (n - 1))];
+				r.p90 = latency[(int) (0.90 * (n - 1))];
+				r.p99 = latency[(int) (0.99 * (n - 1))];
+				r.bytes = (double) bytes / ops;
+			}
+		}
+		return (r);
+	}
+
+	// measureUnify -- Return the unifications per second of the first
+	// query of a workload with the first fact of the same predicate.
+	static double measureUnify(Workload w, BackwardChain bc,
+			double seconds) {
+		Literal q = w.queries.get(0);
+		Literal fact = null;
+		for (Literal f : w.kb.facts) {
+			if (f.pred.equals(q.pred)) {
+				fact = f;
+				break;
+			}
+		}
+		if (fact == null)
+			return (0.0);
+		long period = (long) (seconds * 1.0e9);
+		double rate = 0.0;
+		for (int pass = 0; pass < 2; pass++) {
+			long ops = 0;
+			long start = System.nanoTime();
+			long now;
+			do {
+				for (int i = 0; i < 64; i++) {
+					if (bc.unify(q, fact, new BindingList()) != null)
+						sink++;
+				}
+				ops += 64;
+				now = System.nanoTime();
+			} while (now < start + period);
+			rate = ops * 1.0e9 / (now - start);
+		}
+		return (rate);
+	}
+
+	public static void main(String[] args) {
+		double seconds = (args.length > 0) ? Double.parseDouble(args[0]) : 1.0;
+		long seed = (args.length > 1) ? Long.parseLong(args[1]) : 175L;
+		boolean plan = (args.length > 2) && args[2].equals("plan");
+		System.out.printf("%-10s %6s %7s %12s %10s %10s %10s %12s %12s%n",
+				"workload", "size", "proven", "queries/s", "p50 us",
+				"p90 us", "p99 us", "bytes/query", "unify/s");
+		for (int k = 0; k < Workload.names.length; k++) {
+			for (int size : sizes[k]) {
+				Workload w = Workload.make(Workload.names[k], size,
+						queries, seed);
+				BackwardChain bc = new BackwardChain();
+				bc.kb = w.kb;
+				bc.planning = plan;
+				Result r = measure(w, bc, seconds);
+				double unify = measureUnify(w, bc, seconds / 4);
+				System.out.printf("%-10s %6d %7d %12.0f %10.1f %10.1f "
+						+ "%10.1f %12.0f %12.0f%n", w.name, size, r.proven,
+						r.perSecond, r.p50 / 1e3, r.p90 / 1e3, r.p99 / 1e3,
+						r.bytes, unify);
+			}
+		}
+	}
+
+}
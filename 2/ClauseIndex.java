@@ -0,0 +1,268 @@
+//
+// ClauseIndex
+//
+// This class holds the facts and rules of a knowledge base in compiled
+// form, for use by "BackwardChain".  Clauses are grouped by predicate,
+// keeping their order in the knowledge base within each group, so only
+// clauses with the goal's predicate are ever examined.  The head of each
+// rule, and each fact, is compiled into a tree of match instructions in
+// which every variable has been replaced by the index of a slot in a
+// binding frame.  Matching a goal against a compiled clause walks the
+// goal terms, dereferencing goal variables through the binding list, and
+// records what each clause variable would be bound to in the frame
+// rather than renaming the clause.  Since clause variables are never
+// renamed, the match is done before a rule is standardized apart, and
+// rules whose heads fail the match are never copied.  A rule whose head
+// passes is still copied in full, head and antecedents, by "Rule" or
+// "BackwardChain.standardize", and unified as before:  the bindings in
+// the frame only decide whether to try the rule, and they are discarded
+// afterwards.  Binding the head through the frame itself would need
+// variables that can be renamed by an offset, which "Variable" does not
+// provide, so the saving is only that of the rules that are rejected.
+//
+// The match is conservative:  it fails only when the full unification
+// of the goal with the clause would fail, so using it never changes the
+// results of a query.  Where it cannot cheaply be sure, such as when a
+// goal variable is bound to another variable, it succeeds and leaves the
+// decision to "BackwardChain.unify".
+//
+// The index must be rebuilt, by calling "BackwardChain.compile", if the
+// facts or rules of the knowledge base are changed in place.  Adding or
+// removing clauses is noticed automatically.
+//
+
+
+import java.util.*;
+
+public class ClauseIndex {
+
+	// Match instruction kinds ...
+	static final int CONST = 0;        // compare with a constant term
+	static final int FIRST_VAR = 1;    // first occurrence of a variable
+	static final int VAR = 2;          // later occurrence of a variable
+	static final int FUNC = 3;         // match a function and its arguments
+
+	// Longest chain of variable bindings followed when dereferencing ...
+	static final int MAX_DEREF = 64;
+
+	// Match -- One compiled term of a clause ...
+	static class Match {
+		int kind;             // instruction kind
+		Term term;            // the clause term, for CONST
+		Object func;          // the function symbol, for FUNC
+		int slot;             // frame slot, for FIRST_VAR and VAR
+		Match[] args;         // arguments, for FUNC
+	}
+
+	// Clause -- A compiled fact or rule ...
+	public static class Clause {
+		public Literal fact;  // the fact, or null for a rule
+		public Rule rule;     // the rule, or null for a fact
+		Match[] head;         // compiled arguments of the head
+		int slots;            // number of distinct clause variables
+
+		// matches -- Return false if the given goal, under the given
+		// binding list, certainly does not unify with the head of this
+		// clause.  The given frame must have at least "slots" entries.
+		// The frame is cleared first, since a variable that first occurs
+		// inside a function term matched against an unbound goal variable
+		// is never recorded, and its later occurrences must not be
+		// compared with what an earlier clause left in its slot.
+		boolean matches(Literal goal, BindingList bl, Term[] frame) {
+			if (goal.args.size() != head.length)
+				return (false);
+			Arrays.fill(frame, 0, slots, null);
+			int i = 0;
+			for (Term t : goal.args) {
+				if (!ClauseIndex.match(head[i++], t, bl, frame))
+					return (false);
+			}
+			return (true);
+		}
+	}
+
+	// Group -- The clauses with one predicate, in knowledge base order ...
+	static class Group {
+		Object pred;
+		List<Clause> facts = new ArrayList<Clause>();
+		List<Clause> rules = new ArrayList<Clause>();
+	}
+
+	List<Group> groups = new ArrayList<Group>();
+	List<Literal> factSource;          // the lists that were compiled
+	List<Rule> ruleSource;
+	int factCount;
+	int ruleCount;
+	int maxSlots = 0;                  // largest frame needed
+
+	// Constructor -- Compile the facts and rules of a knowledge base ...
+	public ClauseIndex(KnowledgeBase kb) {
+		factSource = kb.facts;
+		ruleSource = kb.rules;
+		factCount = kb.facts.size();
+		ruleCount = kb.rules.size();
+		for (Literal fact : kb.facts) {
+			Clause c = compile(fact);
+			c.fact = fact;
+			group(fact.pred).facts.add(c);
+		}
+		for (Rule rule : kb.rules) {
+			Clause c = compile(rule.consequent);
+			c.rule = rule;
+			group(rule.consequent.pred).rules.add(c);
+		}
+	}
+
+	// stale -- Return true if clauses have been added to or removed from
+	// the given knowledge base since this index was built.
+	public boolean stale(KnowledgeBase kb) {
+		return ((kb.facts != factSource) || (kb.rules != ruleSource)
+				|| (kb.facts.size() != factCount)
+				|| (kb.rules.size() != ruleCount));
+	}
+
+	// group -- Return the group for the given predicate, creating it if
+	// needed.  There are usually few predicates, so a list is searched.
+	Group group(Object pred) {
+		Group g = find(pred);
+		if (g == null) {
+			g = new Group();
+			g.pred = pred;
+			groups.add(g);
+		}
+		return (g);
+	}
+
+	// find -- Return the group for the given predicate, or null.
+	Group find(Object pred) {
+		for (Group g : groups) {
+			if (g.pred.equals(pred))
+				return (g);
+		}
+		return (null);
+	}
+
+	// facts -- Return the compiled facts with the given predicate.
+	public List<Clause> facts(Object pred) {
+		Group g = find(pred);
+		return ((g == null) ? Collections.<Clause>emptyList() : g.facts);
+	}
+
+	// rules -- Return the compiled rules whose heads have the given
+	// predicate.
+	public List<Clause> rules(Object pred) {
+		Group g = find(pred);
+		return ((g == null) ? Collections.<Clause>emptyList() : g.rules);
+	}
+
+	// frame -- Return a frame large enough for matching any clause.
+	public Term[] frame() {
+		return (new Term[maxSlots]);
+	}
+
+	// compile -- Compile the arguments of a clause head ...
+	Clause compile(Literal head) {
+		Clause c = new Clause();
+		List<Variable> vars = new ArrayList<Variable>();
+		c.head = new Match[head.args.size()];
+		int i = 0;
+		for (Term t : head.args)
+			c.head[i++] = compile(t, vars);
+		c.slots = vars.size();
+		maxSlots = Math.max(maxSlots, c.slots);
+		return (c);
+	}
+
+	// compile -- Compile one term, giving each new variable the next slot.
+	Match compile(Term t, List<Variable> vars) {
+		Match m = new Match();
+		if (t.c != null) {
+			m.kind = CONST;
+			m.term = t;
+		} else if (t.v != null) {
+			m.slot = vars.indexOf(t.v);
+			if (m.slot < 0) {
+				m.kind = FIRST_VAR;
+				m.slot = vars.size();
+				vars.add(t.v);
+			} else {
+				m.kind = VAR;
+			}
+		} else {
+			m.kind = FUNC;
+			m.func = t.f.func;
+			m.args = new Match[t.f.args.size()];
+			int i = 0;
+			for (Term a : t.f.args)
+				m.args[i++] = compile(a, vars);
+		}
+		return (m);
+	}
+
+	// deref -- Follow the bindings of a variable term, returning the term
+	// it is bound to, or the last unbound variable term.
+	static Term deref(Term t, BindingList bl) {
+		for (int i = 0; (i < MAX_DEREF) && (t.v != null); i++) {
+			Term value = bl.boundValue(t.v);
+			if (value == null)
+				return (t);
+			t = value;
+		}
+		return (t);
+	}
+
+	// match -- Return false if the given goal term certainly does not
+	// unify with the compiled clause term.
+	static boolean match(Match m, Term t, BindingList bl, Term[] frame) {
+		t = deref(t, bl);
+		if (t.v != null) {
+			// An unbound goal variable can take any value, but it may
+			// still be needed to compare later occurrences ...
+			if (m.kind == FIRST_VAR)
+				frame[m.slot] = t;
+			return (true);
+		}
+		switch (m.kind) {
+		case CONST:
+			return ((t.c != null) && t.equals(m.term));
+		case FIRST_VAR:
+			frame[m.slot] = t;
+			return (true);
+		case VAR:
+			return (compatible(frame[m.slot], t, bl, 0));
+		default:
+			if ((t.f == null) || (!t.f.func.equals(m.func))
+					|| (t.f.args.size() != m.args.length))
+				return (false);
+			int i = 0;
+			for (Term a : t.f.args) {
+				if (!match(m.args[i++], a, bl, frame))
+					return (false);
+			}
+			return (true);
+		}
+	}
+
+	// compatible -- Return false if the two goal terms certainly cannot
+	// be made equal.
+	static boolean compatible(Term a, Term b, BindingList bl, int depth) {
+		if ((a == null) || (b == null) || (depth > MAX_DEREF))
+			return (true);
+		a = deref(a, bl);
+		b = deref(b, bl);
+		if ((a.v != null) || (b.v != null))
+			return (true);
+		if (a.c != null)
+			return ((b.c != null) && a.equals(b));
+		if ((b.f == null) || (!a.f.func.equals(b.f.func))
+				|| (a.f.args.size() != b.f.args.size()))
+			return (false);
+		Iterator<Term> ib = b.f.args.iterator();
+		for (Term ta : a.f.args) {
+			if (!compatible(ta, ib.next(), bl, depth + 1))
+				return (false);
+		}
+		return (true);
+	}
+
+}
@@ -0,0 +1,41 @@
+//
+// GoalEvent
+//
+// This class defines the Java Flight Recorder event emitted by
+// "BackwardChain" for each goal that it attempts to prove while a
+// recording that enables it is running.  The event is disabled by
+// default.  A query may attempt millions of goals, most of them answered
+// at once from a fact, so unless a recording sets its own threshold only
+// goals that take at least a millisecond are recorded.  Since goals nest,
+// the duration of each event includes the durations of the events for
+// its subgoals.
+//
+
+
+import jdk.jfr.*;
+
+
+@Name("BackwardChain.Goal")
+@Label("Goal")
+@Category({ "BackwardChain", "Inference" })
+@Description("Attempt to prove one goal by backward chaining")
+@Enabled(false)
+@Threshold("1 ms")
+public class GoalEvent extends Event {
+
+	static final EventType type = EventType.getEventType(GoalEvent.class);
+
+	@Label("Predicate")
+	public String predicate;           // predicate of the goal
+
+	@Label("Depth")
+	public int depth;                  // nesting of the goal
+
+	@Label("Proven")
+	public boolean proven;             // whether a proof was found
+
+	@Label("Bindings")
+	public int bindings;               // size of the resulting bindings
+
+
+}
@@ -0,0 +1,195 @@
+//
+// InferenceTracer
+//
+// This class records what "BackwardChain" does while answering queries,
+// so that the cost of a slow query can be attributed to scanning facts,
+// trying rules, or unification.  For each predicate, it counts the goals
+// attempted and proven, the facts tried and the unifications with them
+// that failed, and the rules tried and the rule heads that failed to
+// unify, and it accumulates the time spent proving goals with the
+// predicate (including their subgoals) and the sizes of the resulting
+// binding lists.  It also records the deepest nesting of goals.  When
+// "proofs" is true, the tracer also builds the proof tree of each
+// successful query:  each node holds a goal and either the fact or the
+// rule used to prove it, with the proofs of the rule antecedents as its
+// children.
+//
+// A tracer is attached by setting "BackwardChain.tracer".  When no
+// tracer is attached, and the "GoalEvent" flight recorder event is not
+// enabled, the chainer only tests one field per goal.  A tracer must
+// only be used by one "BackwardChain" at a time.
+//
+
+
+import java.util.*;
+
+public class InferenceTracer {
+
+	// Counts -- What was done for goals with one predicate ...
+	public static class Counts {
+		public Object pred;
+		public long goals = 0;          // goals attempted
+		public long proven = 0;         // goals proven
+		public long facts = 0;          // facts tried
+		public long factFailures = 0;   // facts that did not unify
+		public long rules = 0;          // rules tried
+		public long ruleFailures = 0;   // rule heads that did not unify
+		public long nanos = 0;          // time proving, with subgoals
+		public long bindings = 0;       // total size of proof bindings
+		public int maxBindings = 0;     // largest proof binding list
+	}
+
+	// ProofNode -- One step of a proof ...
+	public static class ProofNode {
+		public Literal goal;            // the goal proven
+		public Literal fact;            // the fact used, or null
+		public Rule rule;               // the rule used, or null
+		public BindingList bindings;    // bindings after the proof
+		public List<ProofNode> children = new ArrayList<ProofNode>();
+		Counts counts;
+		int mark;                       // children before the rule tried
+
+		// toString -- Return the proof as indented lines ...
+		public String toString() {
+			StringBuilder b = new StringBuilder();
+			print(b, 0);
+			return (b.toString());
+		}
+
+		void print(StringBuilder b, int indent) {
+			for (int i = 0; i < indent; i++)
+				b.append("  ");
+			b.append(goal);
+			if (fact != null)
+				b.append("  [fact]");
+			else if (rule != null)
+				b.append("  [rule]");
+			b.append('\n');
+			for (ProofNode child : children)
+				child.print(b, indent + 1);
+		}
+	}
+
+	public boolean proofs = false;     // build proof trees
+	public long goals = 0;             // goals attempted
+	public int maxDepth = 0;           // deepest nesting of goals
+	List<Counts> counts = new ArrayList<Counts>();
+	ArrayDeque<ProofNode> stack = new ArrayDeque<ProofNode>();
+	ArrayDeque<Long> starts = new ArrayDeque<Long>();
+	ProofNode proof = null;
+
+	// counts -- Return the counts for a predicate, creating them if
+	// needed.
+	public Counts counts(Object pred) {
+		for (Counts c : counts) {
+			if (c.pred.equals(pred))
+				return (c);
+		}
+		Counts c = new Counts();
+		c.pred = pred;
+		counts.add(c);
+		return (c);
+	}
+
+	// predicates -- Return the counts for every predicate seen.
+	public List<Counts> predicates() {
+		return (Collections.unmodifiableList(counts));
+	}
+
+	// proof -- Return the proof tree of the last query proven, or null.
+	public ProofNode proof() {
+		return (proof);
+	}
+
+	// clear -- Forget everything recorded ...
+	public void clear() {
+		goals = 0;
+		maxDepth = 0;
+		counts.clear();
+		stack.clear();
+		starts.clear();
+		proof = null;
+	}
+
+	// enter -- Note the start of an attempt to prove a goal.
+	void enter(Literal goal, int depth) {
+		goals++;
+		maxDepth = Math.max(maxDepth, depth);
+		ProofNode node = new ProofNode();
+		node.goal = goal;
+		node.counts = counts(goal.pred);
+		node.counts.goals++;
+		stack.push(node);
+		starts.push(System.nanoTime());
+	}
+
+	// exit -- Note the end of the innermost attempt to prove a goal,
+	// with the resulting binding list, or null on failure.
+	void exit(BindingList result) {
+		ProofNode node = stack.pop();
+		node.counts.nanos += System.nanoTime() - starts.pop();
+		if (result == null)
+			return;
+		node.counts.proven++;
+		int size = result.bindings.size();
+		node.counts.bindings += size;
+		node.counts.maxBindings = Math.max(node.counts.maxBindings, size);
+		if (!proofs)
+			return;
+		node.bindings = result;
+		if (stack.isEmpty())
+			proof = node;
+		else
+			stack.peek().children.add(node);
+	}
+
+	// fact -- Note an attempt to unify the current goal with a fact.
+	void fact(Literal fact, boolean unified) {
+		ProofNode node = stack.peek();
+		node.counts.facts++;
+		if (unified)
+			node.fact = fact;
+		else
+			node.counts.factFailures++;
+	}
+
+	// rule -- Note an attempt to unify the current goal with the head of
+	// a rule.
+	void rule(Rule rule, boolean unified) {
+		ProofNode node = stack.peek();
+		node.counts.rules++;
+		if (!unified) {
+			node.counts.ruleFailures++;
+			return;
+		}
+		node.rule = rule;
+		node.mark = node.children.size();
+	}
+
+	// ruleFailed -- Note that the antecedents of the rule most recently
+	// tried for the current goal could not be proven, discarding the
+	// proofs of any that were.
+	void ruleFailed() {
+		ProofNode node = stack.peek();
+		node.rule = null;
+		while (node.children.size() > node.mark)
+			node.children.remove(node.children.size() - 1);
+	}
+
+	// report -- Return a table of the counts for every predicate.
+	public String report() {
+		StringBuilder b = new StringBuilder();
+		b.append(String.format("goals %d, deepest %d%n", goals, maxDepth));
+		b.append(String.format("%-16s %8s %8s %10s %10s %8s %8s %10s %8s%n",
+				"predicate", "goals", "proven", "facts", "fact fail",
+				"rules", "rule fail", "ms", "bind max"));
+		for (Counts c : counts)
+			b.append(String.format(
+					"%-16s %8d %8d %10d %10d %8d %8d %10.3f %8d%n",
+					String.valueOf(c.pred), c.goals, c.proven, c.facts,
+					c.factFailures, c.rules, c.ruleFailures, c.nanos / 1e6,
+					c.maxBindings));
+		return (b.toString());
+	}
+
+}
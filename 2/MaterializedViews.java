@@ -0,0 +1,534 @@
+//
+// MaterializedViews
+//
+// This class keeps every conclusion that follows from the facts and rules
+// of a knowledge base, by forward chaining, and keeps those conclusions
+// up to date as facts are inserted and deleted, without starting over.
+// Each predicate has a "View" of the ground literals with that predicate
+// that currently hold, and checking whether a ground literal holds is a
+// single hash table lookup.
+//
+// Insertions are propagated by semi-naive evaluation:  each newly true
+// literal is joined with the rule antecedents it matches, against all of
+// the literals currently true, and any new consequents are propagated in
+// turn.  Deletions use the DRed (delete and rederive) algorithm.  First,
+// every conclusion with some derivation that uses a deleted literal is
+// over-deleted, then each over-deleted literal that is still an explicit
+// fact, or still has a derivation from what remains, is rederived, and
+// the rederived literals are propagated as insertions.  This is correct
+// for recursive rules, unlike simple derivation counting.
+//
+// Ground terms are represented internally by canonical keys built from
+// the printed form of constants, function symbols and predicates, so
+// those must print distinctly.  Consequents with terms nested more deeply
+// than "max_depth" are not derived, which keeps rules that build ever
+// larger terms from running forever.  This class is not thread safe.
+//
+
+
+import java.util.*;
+
+public class MaterializedViews {
+
+	// Deepest nesting of function terms that will be derived ...
+	static public int max_depth = 16;
+
+	// Value -- A ground term ...
+	static final class Value {
+		final String key;      // canonical printed form
+		final Object func;     // function symbol, or null for a constant
+		final Value[] args;    // function arguments
+
+		Value(String key, Object func, Value[] args) {
+			this.key = key;
+			this.func = func;
+			this.args = args;
+		}
+
+		int depth() {
+			int d = 0;
+			if (args != null)
+				for (Value a : args)
+					d = Math.max(d, a.depth() + 1);
+			return (d);
+		}
+	}
+
+	// Atom -- A ground literal that holds ...
+	static final class Atom {
+		final String pred;     // predicate key
+		final Value[] args;    // ground arguments
+		final String key;      // canonical printed form
+		boolean base = false;  // asserted explicitly as a fact
+		boolean doomed = false;  // over-deleted, pending rederivation
+
+		Atom(String pred, Value[] args) {
+			this.pred = pred;
+			this.args = args;
+			this.key = atomKey(pred, args);
+		}
+
+		String first() {
+			return ((args.length == 0) ? "" : args[0].key);
+		}
+	}
+
+	// Pattern -- A term of a rule, with variables numbered by slot ...
+	static final class Pattern {
+		String key;            // constant key, or null
+		Object func;           // function symbol, or null
+		int slot = -1;         // variable slot, or -1
+		Pattern[] args;        // function arguments
+	}
+
+	// Compiled -- A compiled rule ...
+	static final class Compiled {
+		Rule rule;
+		String headPred;
+		Pattern[] head;
+		String[] bodyPred;
+		Pattern[][] body;
+		int slots;
+	}
+
+	// View -- The literals with one predicate that currently hold ...
+	public static final class View {
+		final String pred;
+		final LinkedHashMap<String, Atom> atoms =
+			new LinkedHashMap<String, Atom>();
+		final HashMap<String, List<Atom>> byFirst =
+			new HashMap<String, List<Atom>>();
+
+		View(String pred) {
+			this.pred = pred;
+		}
+
+		// size -- Return the number of literals in this view.
+		public int size() {
+			return (atoms.size());
+		}
+
+		// keys -- Return the printed forms of the literals in this view.
+		public Set<String> keys() {
+			return (Collections.unmodifiableSet(atoms.keySet()));
+		}
+
+		void add(Atom a) {
+			atoms.put(a.key, a);
+			List<Atom> list = byFirst.get(a.first());
+			if (list == null) {
+				list = new ArrayList<Atom>();
+				byFirst.put(a.first(), list);
+			}
+			list.add(a);
+		}
+
+		void remove(Atom a) {
+			atoms.remove(a.key);
+			List<Atom> list = byFirst.get(a.first());
+			if (list != null) {
+				list.remove(a);
+				if (list.isEmpty())
+					byFirst.remove(a.first());
+			}
+		}
+	}
+
+	List<Compiled> rules = new ArrayList<Compiled>();
+	HashMap<String, Atom> holding = new HashMap<String, Atom>();
+	HashMap<String, View> views = new HashMap<String, View>();
+	HashMap<String, List<Compiled>> byBodyPred =
+		new HashMap<String, List<Compiled>>();
+	HashMap<String, List<Compiled>> byHeadPred =
+		new HashMap<String, List<Compiled>>();
+
+	public long derivations = 0;       // consequents found by joins
+	public long overdeleted = 0;       // literals over-deleted
+	public long rederived = 0;         // over-deleted literals restored
+
+	// Constructor -- Compile the rules of the knowledge base and derive
+	// every conclusion from its facts.  Facts that are not ground are
+	// ignored.
+	public MaterializedViews(KnowledgeBase kb) {
+		for (Rule r : kb.rules)
+			compile(r);
+		insertAll(kb.facts);
+	}
+
+	// holds -- Return true if the given ground literal currently holds.
+	public boolean holds(Literal lit) {
+		Atom a = atom(lit);
+		return ((a != null) && holding.containsKey(a.key));
+	}
+
+	// view -- Return the view of the given predicate.  The view is kept
+	// up to date as facts change.
+	public View view(Object pred) {
+		return (viewOf(String.valueOf(pred)));
+	}
+
+	// size -- Return the number of literals that currently hold.
+	public int size() {
+		return (holding.size());
+	}
+
+	// insert -- Assert a ground fact and derive its consequences.  Return
+	// false if the fact is not ground.
+	public boolean insert(Literal fact) {
+		return (insertAll(Collections.singletonList(fact)));
+	}
+
+	// insertAll -- Assert several ground facts at once.  Return false if
+	// any of them is not ground, in which case that fact is skipped.
+	public boolean insertAll(Collection<Literal> facts) {
+		boolean ok = true;
+		ArrayDeque<Atom> delta = new ArrayDeque<Atom>();
+		for (Literal f : facts) {
+			Atom a = atom(f);
+			if (a == null) {
+				ok = false;
+				continue;
+			}
+			Atom old = holding.get(a.key);
+			if (old != null) {
+				old.base = true;
+			} else {
+				a.base = true;
+				add(a);
+				delta.add(a);
+			}
+		}
+		propagate(delta);
+		return (ok);
+	}
+
+	// delete -- Retract a ground fact and withdraw the conclusions that
+	// no longer follow.  Return false if the fact is not ground.
+	public boolean delete(Literal fact) {
+		return (deleteAll(Collections.singletonList(fact)));
+	}
+
+	// deleteAll -- Retract several ground facts at once.  Return false if
+	// any of them is not ground, in which case that fact is skipped.
+	public boolean deleteAll(Collection<Literal> facts) {
+		boolean ok = true;
+		ArrayDeque<Atom> queue = new ArrayDeque<Atom>();
+		for (Literal f : facts) {
+			Atom key = atom(f);
+			if (key == null) {
+				ok = false;
+				continue;
+			}
+			Atom a = holding.get(key.key);
+			if ((a != null) && a.base) {
+				a.base = false;
+				if (!a.doomed) {
+					a.doomed = true;
+					queue.add(a);
+				}
+			}
+		}
+		if (queue.isEmpty())
+			return (ok);
+		// Over-delete everything derived using a deleted literal ...
+		List<Atom> doomed = new ArrayList<Atom>(queue);
+		while (!queue.isEmpty()) {
+			Atom d = queue.poll();
+			for (Compiled r : rulesUsing(d.pred)) {
+				for (int i = 0; i < r.body.length; i++) {
+					if (!r.bodyPred[i].equals(d.pred))
+						continue;
+					Value[] frame = new Value[r.slots];
+					if (!matchArgs(r.body[i], d.args, frame))
+						continue;
+					final List<Atom> found = new ArrayList<Atom>();
+					join(r, 0, i, frame, (head) -> found.add(head));
+					for (Atom h : found) {
+						Atom old = holding.get(h.key);
+						if ((old != null) && !old.doomed) {
+							old.doomed = true;
+							doomed.add(old);
+							queue.add(old);
+						}
+					}
+				}
+			}
+		}
+		overdeleted += doomed.size();
+		for (Atom a : doomed)
+			remove(a);
+		// Rederive what still follows ...
+		ArrayDeque<Atom> delta = new ArrayDeque<Atom>();
+		for (Atom a : doomed) {
+			a.doomed = false;
+			if (a.base || derivable(a)) {
+				add(a);
+				delta.add(a);
+				rederived++;
+			}
+		}
+		propagate(delta);
+		return (ok);
+	}
+
+	// propagate -- Derive the consequences of newly true literals ...
+	void propagate(ArrayDeque<Atom> delta) {
+		while (!delta.isEmpty()) {
+			Atom d = delta.poll();
+			for (Compiled r : rulesUsing(d.pred)) {
+				for (int i = 0; i < r.body.length; i++) {
+					if (!r.bodyPred[i].equals(d.pred))
+						continue;
+					Value[] frame = new Value[r.slots];
+					if (!matchArgs(r.body[i], d.args, frame))
+						continue;
+					final List<Atom> found = new ArrayList<Atom>();
+					join(r, 0, i, frame, (head) -> found.add(head));
+					for (Atom h : found) {
+						if (!holding.containsKey(h.key)) {
+							add(h);
+							delta.add(h);
+						}
+					}
+				}
+			}
+		}
+	}
+
+	// derivable -- Return true if some rule derives the given literal
+	// from the literals that currently hold.
+	boolean derivable(Atom a) {
+		List<Compiled> list = byHeadPred.get(a.pred);
+		if (list == null)
+			return (false);
+		for (Compiled r : list) {
+			Value[] frame = new Value[r.slots];
+			if (!matchArgs(r.head, a.args, frame))
+				continue;
+			final boolean[] found = { false };
+			join(r, 0, -1, frame, (head) -> found[0] = true);
+			if (found[0])
+				return (true);
+		}
+		return (false);
+	}
+
+	// join -- Match the antecedents of a rule, from index "j" on but
+	// skipping index "skip", against the literals that currently hold,
+	// passing each resulting consequent to "out".
+	void join(Compiled r, int j, int skip, Value[] frame,
+			java.util.function.Consumer<Atom> out) {
+		if (j == skip) {
+			join(r, j + 1, skip, frame, out);
+			return;
+		}
+		if (j == r.body.length) {
+			Value[] args = new Value[r.head.length];
+			for (int k = 0; k < args.length; k++) {
+				args[k] = build(r.head[k], frame);
+				if (args[k].depth() > max_depth)
+					return;
+			}
+			derivations++;
+			out.accept(new Atom(r.headPred, args));
+			return;
+		}
+		View v = views.get(r.bodyPred[j]);
+		if (v == null)
+			return;
+		Collection<Atom> candidates = v.atoms.values();
+		Pattern[] pattern = r.body[j];
+		if (pattern.length > 0) {
+			Value first = bound(pattern[0], frame);
+			if (first != null) {
+				candidates = v.byFirst.get(first.key);
+				if (candidates == null)
+					return;
+			}
+		}
+		// Copy, since consequents may be added to this view ...
+		for (Atom a : new ArrayList<Atom>(candidates)) {
+			Value[] next = frame.clone();
+			if (matchArgs(pattern, a.args, next))
+				join(r, j + 1, skip, next, out);
+		}
+	}
+
+	// bound -- Return the ground value of a pattern under a frame, or
+	// null if it still contains unbound variables.
+	static Value bound(Pattern p, Value[] frame) {
+		if (p.key != null)
+			return (new Value(p.key, null, null));
+		if (p.slot >= 0)
+			return (frame[p.slot]);
+		Value[] args = new Value[p.args.length];
+		for (int i = 0; i < args.length; i++) {
+			args[i] = bound(p.args[i], frame);
+			if (args[i] == null)
+				return (null);
+		}
+		return (new Value(funcKey(p.func, args), p.func, args));
+	}
+
+	// build -- Return the ground value of a consequent pattern.  Every
+	// variable of a consequent must appear in an antecedent.
+	static Value build(Pattern p, Value[] frame) {
+		Value v = bound(p, frame);
+		if (v == null)
+			throw new IllegalStateException("unsafe rule variable");
+		return (v);
+	}
+
+	// matchArgs -- Match patterns against ground values, binding free
+	// variables in the frame.  Return false on a mismatch.
+	static boolean matchArgs(Pattern[] ps, Value[] vs, Value[] frame) {
+		if (ps.length != vs.length)
+			return (false);
+		for (int i = 0; i < ps.length; i++)
+			if (!match(ps[i], vs[i], frame))
+				return (false);
+		return (true);
+	}
+
+	static boolean match(Pattern p, Value v, Value[] frame) {
+		if (p.key != null)
+			return ((v.func == null) && p.key.equals(v.key));
+		if (p.slot >= 0) {
+			if (frame[p.slot] == null) {
+				frame[p.slot] = v;
+				return (true);
+			}
+			return (frame[p.slot].key.equals(v.key));
+		}
+		if ((v.func == null) || (!p.func.equals(v.func)))
+			return (false);
+		return (matchArgs(p.args, v.args, frame));
+	}
+
+	// compile -- Compile a rule, numbering its variables ...
+	void compile(Rule r) {
+		Compiled c = new Compiled();
+		List<Variable> vars = new ArrayList<Variable>();
+		c.rule = r;
+		c.headPred = String.valueOf(r.consequent.pred);
+		c.head = compile(r.consequent.args, vars);
+		c.bodyPred = new String[r.antecedents.size()];
+		c.body = new Pattern[r.antecedents.size()][];
+		int i = 0;
+		for (Literal lit : r.antecedents) {
+			c.bodyPred[i] = String.valueOf(lit.pred);
+			c.body[i] = compile(lit.args, vars);
+			List<Compiled> list = byBodyPred.get(c.bodyPred[i]);
+			if (list == null) {
+				list = new ArrayList<Compiled>();
+				byBodyPred.put(c.bodyPred[i], list);
+			}
+			if (!list.contains(c))
+				list.add(c);
+			i++;
+		}
+		c.slots = vars.size();
+		List<Compiled> heads = byHeadPred.get(c.headPred);
+		if (heads == null) {
+			heads = new ArrayList<Compiled>();
+			byHeadPred.put(c.headPred, heads);
+		}
+		heads.add(c);
+		rules.add(c);
+	}
+
+	Pattern[] compile(List<Term> terms, List<Variable> vars) {
+		Pattern[] ps = new Pattern[terms.size()];
+		int i = 0;
+		for (Term t : terms)
+			ps[i++] = compile(t, vars);
+		return (ps);
+	}
+
+	Pattern compile(Term t, List<Variable> vars) {
+		Pattern p = new Pattern();
+		if (t.c != null) {
+			p.key = String.valueOf(t.c);
+		} else if (t.v != null) {
+			p.slot = vars.indexOf(t.v);
+			if (p.slot < 0) {
+				p.slot = vars.size();
+				vars.add(t.v);
+			}
+		} else {
+			p.func = t.f.func;
+			p.args = compile(t.f.args, vars);
+		}
+		return (p);
+	}
+
+	// value -- Return the ground value of a term, or null if the term
+	// contains a variable.
+	static Value value(Term t) {
+		if (t.c != null)
+			return (new Value(String.valueOf(t.c), null, null));
+		if (t.v != null)
+			return (null);
+		Value[] args = new Value[t.f.args.size()];
+		int i = 0;
+		for (Term a : t.f.args) {
+			args[i] = value(a);
+			if (args[i++] == null)
+				return (null);
+		}
+		return (new Value(funcKey(t.f.func, args), t.f.func, args));
+	}
+
+	// atom -- Return an atom for a ground literal, or null if the literal
+	// is not ground.
+	static Atom atom(Literal lit) {
+		Value[] args = new Value[lit.args.size()];
+		int i = 0;
+		for (Term t : lit.args) {
+			args[i] = value(t);
+			if (args[i++] == null)
+				return (null);
+		}
+		return (new Atom(String.valueOf(lit.pred), args));
+	}
+
+	static String funcKey(Object func, Value[] args) {
+		return (atomKey(String.valueOf(func), args));
+	}
+
+	static String atomKey(String name, Value[] args) {
+		StringBuilder b = new StringBuilder(name);
+		b.append('(');
+		for (int i = 0; i < args.length; i++) {
+			if (i > 0)
+				b.append(',');
+			b.append(args[i].key);
+		}
+		return (b.append(')').toString());
+	}
+
+	List<Compiled> rulesUsing(String pred) {
+		List<Compiled> list = byBodyPred.get(pred);
+		return ((list == null) ? Collections.<Compiled>emptyList() : list);
+	}
+
+	View viewOf(String pred) {
+		View v = views.get(pred);
+		if (v == null) {
+			v = new View(pred);
+			views.put(pred, v);
+		}
+		return (v);
+	}
+
+	void add(Atom a) {
+		holding.put(a.key, a);
+		viewOf(a.pred).add(a);
+	}
+
+	void remove(Atom a) {
+		holding.remove(a.key);
+		viewOf(a.pred).remove(a);
+	}
+
+}
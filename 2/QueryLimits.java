@@ -0,0 +1,63 @@
+//
+// QueryLimits
+//
+// This class holds the resource limits placed on one query submitted to
+// "BackwardChain.ask":  the deepest nesting of goals allowed in a proof,
+// the most goals that may be attempted, a wall clock deadline, and the
+// largest binding list allowed.  Zero for any limit, including the
+// timeout, means no limit.  A query may also be cancelled from another
+// thread by calling "cancel"; the query notices at its next step.  A
+// query that runs out of any resource stops with a "QueryResult" whose
+// status is "exhausted", naming the limit reached.
+//
+
+
+public class QueryLimits {
+
+	public int maxDepth = 0;           // deepest goal nesting
+	public long maxSteps = 0;          // most goals attempted
+	public long timeoutNanos = 0;      // longest running time
+	public int maxBindings = 0;        // largest binding list
+
+	// Set by "cancel", possibly in another thread ...
+	volatile boolean cancelled = false;
+
+	// Limits copied by "copy", whose cancellation also applies here ...
+	QueryLimits parent = null;
+
+	// Default constructor -- No limits ...
+	public QueryLimits() {
+	}
+
+	// Constructor with every limit specified ...
+	public QueryLimits(int maxDepth, long maxSteps, long timeoutMillis,
+			int maxBindings) {
+		this.maxDepth = maxDepth;
+		this.maxSteps = maxSteps;
+		this.timeoutNanos = timeoutMillis * 1000000L;
+		this.maxBindings = maxBindings;
+	}
+
+	// copy -- Return a copy of these limits for one of several queries,
+	// so that cancelling the copy stops that query alone, while
+	// cancelling these limits stops every query using a copy.
+	public QueryLimits copy() {
+		QueryLimits l = new QueryLimits();
+		l.maxDepth = maxDepth;
+		l.maxSteps = maxSteps;
+		l.timeoutNanos = timeoutNanos;
+		l.maxBindings = maxBindings;
+		l.parent = this;
+		return (l);
+	}
+
+	// cancel -- Ask the query using these limits to stop ...
+	public void cancel() {
+		cancelled = true;
+	}
+
+	public boolean isCancelled() {
+		return (cancelled || ((parent != null) && parent.isCancelled()));
+	}
+
+}
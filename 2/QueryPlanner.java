@@ -0,0 +1,185 @@
+//
+// QueryPlanner
+//
+// This class chooses the order in which "BackwardChain" proves a list of
+// goals, such as the antecedents of a rule.  Rather than always proving
+// the first goal next, the planner picks the goal expected to have the
+// fewest solutions under the current bindings, so that selective goals
+// bind variables early and filter the work done for the others.  The
+// choice is made afresh before each goal is proven, since the bindings
+// made by one goal change the cost of the rest.
+//
+// The estimates come from statistics gathered over the knowledge base:
+// for each predicate, the number of facts, the number of distinct values
+// in each argument position of those facts, and the number of rules
+// with that predicate in the head.  The expected number of facts matching
+// a goal is the fact count divided by the number of distinct values of
+// each bound argument, as in a database optimizer, and each rule that
+// might apply adds "rule_cost".  A goal that matches no fact or rule
+// costs nothing, so a doomed conjunction fails before any other work.
+// Ties keep the order in which the goals were written.
+//
+// Only the first goal, and goals that are ground under the current
+// bindings and whose predicate has no rules, are candidates.  The chainer
+// keeps the first binding found for each goal and never backtracks, so
+// proving an unbound goal early could choose a binding that makes a later
+// goal fail where the written order succeeds.  Proving a ground goal
+// binds none of the query's variables, so moving it ahead of the others
+// cannot change whether they succeed, and the order of the remaining
+// unbound goals is the written one.  A goal that can only be answered
+// from facts is always answered at once, whereas proving a goal through
+// rules may not terminate, so such a goal is never moved ahead of one
+// that the written order would have failed first.  Whenever the written
+// order terminates, the planner therefore finds the same answers, and it
+// fails faster when a cheap ground goal cannot be proven.
+//
+
+
+import java.util.*;
+
+public class QueryPlanner {
+
+	// Estimated solutions contributed by each rule that might apply ...
+	static public double rule_cost = 10.0;
+
+	// Stats -- Statistics for one predicate ...
+	static class Stats {
+		Object pred;
+		int facts = 0;
+		int rules = 0;
+		List<Set<String>> values = new ArrayList<Set<String>>();
+		double[] distinct = new double[0];
+	}
+
+	List<Stats> stats = new ArrayList<Stats>();
+	List<Literal> factSource;
+	List<Rule> ruleSource;
+	int factCount;
+	int ruleCount;
+
+	// Constructor -- Gather statistics over a knowledge base ...
+	public QueryPlanner(KnowledgeBase kb) {
+		factSource = kb.facts;
+		ruleSource = kb.rules;
+		factCount = kb.facts.size();
+		ruleCount = kb.rules.size();
+		for (Literal fact : kb.facts) {
+			Stats s = stats(fact.pred);
+			s.facts++;
+			int i = 0;
+			for (Term t : fact.args) {
+				while (s.values.size() <= i)
+					s.values.add(new HashSet<String>());
+				s.values.get(i++).add(String.valueOf(t));
+			}
+		}
+		for (Rule r : kb.rules)
+			stats(r.consequent.pred).rules++;
+		for (Stats s : stats) {
+			s.distinct = new double[s.values.size()];
+			for (int i = 0; i < s.distinct.length; i++)
+				s.distinct[i] = Math.max(1, s.values.get(i).size());
+			s.values = null;
+		}
+	}
+
+	// stale -- Return true if clauses have been added to or removed from
+	// the given knowledge base since the statistics were gathered.
+	public boolean stale(KnowledgeBase kb) {
+		return ((kb.facts != factSource) || (kb.rules != ruleSource)
+				|| (kb.facts.size() != factCount)
+				|| (kb.rules.size() != ruleCount));
+	}
+
+	// stats -- Return the statistics for a predicate, creating them if
+	// needed.
+	Stats stats(Object pred) {
+		Stats s = find(pred);
+		if (s == null) {
+			s = new Stats();
+			s.pred = pred;
+			stats.add(s);
+		}
+		return (s);
+	}
+
+	Stats find(Object pred) {
+		for (Stats s : stats) {
+			if (s.pred.equals(pred))
+				return (s);
+		}
+		return (null);
+	}
+
+	// cost -- Return the estimated number of solutions of a goal under
+	// the given binding list.
+	public double cost(Literal goal, BindingList bl) {
+		Stats s = find(goal.pred);
+		if (s == null)
+			return (0.0);
+		double matches = s.facts;
+		int i = 0;
+		for (Term t : goal.args) {
+			Term value = ClauseIndex.deref(t, bl);
+			if ((value.v == null) && (i < s.distinct.length))
+				matches /= s.distinct[i];
+			i++;
+		}
+		return (matches + (s.rules * rule_cost));
+	}
+
+	// ground -- Return true if the given term contains no unbound
+	// variables under the given binding list.
+	static boolean ground(Term t, BindingList bl) {
+		Term value = ClauseIndex.deref(t, bl);
+		if (value.v != null)
+			return (false);
+		if (value.f != null) {
+			for (Term arg : value.f.args) {
+				if (!ground(arg, bl))
+					return (false);
+			}
+		}
+		return (true);
+	}
+
+	// ground -- Return true if every argument of the given goal is ground
+	// under the given binding list.
+	static boolean ground(Literal goal, BindingList bl) {
+		for (Term t : goal.args) {
+			if (!ground(t, bl))
+				return (false);
+		}
+		return (true);
+	}
+
+	// factsOnly -- Return true if no rule has the predicate of the given
+	// goal in its head.
+	boolean factsOnly(Literal goal) {
+		Stats s = find(goal.pred);
+		return ((s == null) || (s.rules == 0));
+	}
+
+	// choose -- Return the index of the goal to prove next:  the cheapest
+	// of the first goal and the goals that are ground under the given
+	// binding list and can only be answered from facts.
+	public int choose(List<Literal> goals, BindingList bl) {
+		int best = 0;
+		double bestCost = Double.POSITIVE_INFINITY;
+		int i = 0;
+		for (Literal goal : goals) {
+			if ((i > 0) && (!factsOnly(goal) || !ground(goal, bl))) {
+				i++;
+				continue;
+			}
+			double c = cost(goal, bl);
+			if (c < bestCost) {
+				best = i;
+				bestCost = c;
+			}
+			i++;
+		}
+		return (best);
+	}
+
+}
@@ -0,0 +1,47 @@
+//
+// QueryResult
+//
+// This class reports the outcome of a query run under "QueryLimits".  A
+// query is either proven, with the binding list of the proof, or it
+// failed, meaning that the search ended without finding a proof, or it
+// was exhausted, meaning that a resource limit was reached or the query
+// was cancelled before the search ended.  An exhausted query says
+// nothing about whether the goal could be proven.
+//
+
+
+public class QueryResult {
+
+	public enum Status { proven, failed, exhausted }
+
+	public Status status;              // outcome of the query
+	public BindingList bindings;       // proof bindings, when proven
+	public String reason;              // limit reached, when exhausted
+	public long steps;                 // goals attempted
+	public long nanos;                 // running time
+
+	// Constructor ...
+	public QueryResult(Status status, BindingList bindings, String reason,
+			long steps, long nanos) {
+		this.status = status;
+		this.bindings = bindings;
+		this.reason = reason;
+		this.steps = steps;
+		this.nanos = nanos;
+	}
+
+	public boolean proven() {
+		return (status == Status.proven);
+	}
+
+	public boolean exhausted() {
+		return (status == Status.exhausted);
+	}
+
+	public String toString() {
+		if (status == Status.exhausted)
+			return ("exhausted (" + reason + ") after " + steps + " steps");
+		return (status + " after " + steps + " steps");
+	}
+
+}
@@ -0,0 +1,172 @@
+//
+// QueryService
+//
+// This class answers queries from many threads at once against a shared
+// knowledge base.  The knowledge base is held as an immutable "Snapshot",
+// with its clause index and planner statistics built once, and each
+// update makes a modified copy and publishes it atomically, so queries
+// never see a knowledge base change under them and never wait for a
+// writer.  Each query runs in its own "BackwardChain", bound to the
+// snapshot that was current when the query was submitted, and renames
+// rule variables with its own counter rather than the shared one used by
+// "Rule.standardizeApart".
+//
+// Queries submitted with "submit" run on virtual threads when the Java
+// runtime provides them, and otherwise on a pool with one thread per
+// processor.  A query never blocks, and writes only to its own
+// "BackwardChain" (the index and planner of a snapshot are only read), so
+// queries running on different processors do not contend with each other.
+//
+
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class QueryService implements AutoCloseable {
+
+	// Snapshot -- An immutable version of the knowledge base ...
+	public static final class Snapshot {
+		public final long version;     // count of updates so far
+		public final KnowledgeBase kb;  // facts and rules, unmodifiable
+		final ClauseIndex index;       // compiled clauses
+		final QueryPlanner planner;    // goal ordering statistics
+
+		Snapshot(long version, List<Literal> facts, List<Rule> rules) {
+			this.version = version;
+			kb = new KnowledgeBase();
+			kb.facts = Collections.unmodifiableList(
+					new ArrayList<Literal>(facts));
+			kb.rules = Collections.unmodifiableList(
+					new ArrayList<Rule>(rules));
+			index = new ClauseIndex(kb);
+			planner = new QueryPlanner(kb);
+		}
+	}
+
+	final AtomicReference<Snapshot> current;
+	final ExecutorService executor;
+	public volatile boolean planning = false;  // reorder goals by cost
+
+	// Constructor -- Serve queries against a copy of the given knowledge
+	// base ...
+	public QueryService(KnowledgeBase kb) {
+		current = new AtomicReference<Snapshot>(
+				new Snapshot(0, kb.facts, kb.rules));
+		executor = newExecutor();
+	}
+
+	// newExecutor -- Return an executor that starts a virtual thread for
+	// each task, if the runtime supports them, or else a fixed pool.
+	static ExecutorService newExecutor() {
+		try {
+			return ((ExecutorService) Executors.class
+					.getMethod("newVirtualThreadPerTaskExecutor")
+					.invoke(null));
+		} catch (ReflectiveOperationException e) {
+			return (Executors.newFixedThreadPool(
+					Runtime.getRuntime().availableProcessors(), (r) -> {
+						Thread t = new Thread(r, "query");
+						t.setDaemon(true);
+						return (t);
+					}));
+		}
+	}
+
+	// snapshot -- Return the current version of the knowledge base.
+	public Snapshot snapshot() {
+		return (current.get());
+	}
+
+	// addFacts -- Publish a new snapshot with the given facts appended.
+	public synchronized Snapshot addFacts(Collection<Literal> facts) {
+		Snapshot s = current.get();
+		List<Literal> next = new ArrayList<Literal>(s.kb.facts);
+		next.addAll(facts);
+		return (publish(new Snapshot(s.version + 1, next, s.kb.rules)));
+	}
+
+	// removeFacts -- Publish a new snapshot without the given facts.
+	public synchronized Snapshot removeFacts(Collection<Literal> facts) {
+		Snapshot s = current.get();
+		List<Literal> next = new ArrayList<Literal>(s.kb.facts);
+		next.removeAll(facts);
+		return (publish(new Snapshot(s.version + 1, next, s.kb.rules)));
+	}
+
+	// addRules -- Publish a new snapshot with the given rules appended.
+	public synchronized Snapshot addRules(Collection<Rule> rules) {
+		Snapshot s = current.get();
+		List<Rule> next = new ArrayList<Rule>(s.kb.rules);
+		next.addAll(rules);
+		return (publish(new Snapshot(s.version + 1, s.kb.facts, next)));
+	}
+
+	// replace -- Publish a new snapshot copied from the given knowledge
+	// base.
+	public synchronized Snapshot replace(KnowledgeBase kb) {
+		Snapshot s = current.get();
+		return (publish(new Snapshot(s.version + 1, kb.facts, kb.rules)));
+	}
+
+	Snapshot publish(Snapshot s) {
+		current.set(s);
+		return (s);
+	}
+
+	// chain -- Return a fresh inference engine for one query against the
+	// given snapshot.
+	BackwardChain chain(Snapshot s) {
+		BackwardChain bc = new BackwardChain();
+		bc.kb = s.kb;
+		bc.index = s.index;
+		bc.planner = s.planner;
+		bc.planning = planning;
+		bc.localRenaming = true;
+		return (bc);
+	}
+
+	// ask -- Answer a query in the calling thread, against the current
+	// snapshot, within the given limits, which may be null.
+	public QueryResult ask(Literal goal, QueryLimits limits) {
+		return (chain(current.get()).ask(goal, limits));
+	}
+
+	// submit -- Answer a query in the background, against the snapshot
+	// that is current now, within the given limits, which may be null.
+	public CompletableFuture<QueryResult> submit(Literal goal,
+			QueryLimits limits) {
+		final BackwardChain bc = chain(current.get());
+		return (CompletableFuture.supplyAsync(() -> bc.ask(goal, limits),
+				executor));
+	}
+
+	// askAll -- Answer several queries in parallel, against the snapshot
+	// that is current now, returning the results in order.  Each query
+	// runs within its own copy of the given limits, which may be null;
+	// cancelling the given limits stops them all.
+	public List<QueryResult> askAll(List<Literal> goals,
+			QueryLimits limits) {
+		Snapshot s = current.get();
+		List<CompletableFuture<QueryResult>> futures =
+			new ArrayList<CompletableFuture<QueryResult>>();
+		for (Literal goal : goals) {
+			final BackwardChain bc = chain(s);
+			// Each query gets its own copy of the limits, which
+			// cancelling the given limits also stops ...
+			final QueryLimits lim = (limits == null) ? null : limits.copy();
+			futures.add(CompletableFuture.supplyAsync(
+					() -> bc.ask(goal, lim), executor));
+		}
+		List<QueryResult> results = new ArrayList<QueryResult>();
+		for (CompletableFuture<QueryResult> f : futures)
+			results.add(f.join());
+		return (results);
+	}
+
+	// close -- Stop accepting queries ...
+	public void close() {
+		executor.shutdown();
+	}
+
+}
@@ -0,0 +1,166 @@
+//
+// Workload
+//
+// This class generates synthetic knowledge bases and queries for
+// benchmarking "BackwardChain".  Each workload is a knowledge base
+// together with a list of goals to ask, and the goals are chosen using a
+// seeded random number generator, so a workload with the same name, size
+// and seed is always the same.  The workloads are:
+//
+//     facts     -- "size" facts of the form rel(k_i, v_j), queried with
+//                  the first argument bound and the second unbound
+//     ancestor  -- a chain of "size" parent facts with the two recursive
+//                  ancestor rules, queried for ancestors up to "size"
+//                  generations apart
+//     wide      -- facts with "size" arguments, queried with all but one
+//                  argument bound
+//     nested    -- facts holding function terms nested "size" deep,
+//                  queried with partially instantiated nested terms
+//     rules     -- "size" rules for one predicate, each with a different
+//                  constant in its head, queried through each of them
+//     embedded  -- "size" facts pair(c_i, U, d_i), then one fact
+//                  pair(f(X), Z, X) whose variable X first occurs inside
+//                  a function term, queried as pair(Y, a_k, b_k), which
+//                  only the last fact answers, so every query is proven
+//
+// All terms are built by the small factory functions at the end of this
+// class, which are the only code that depends on how the term classes
+// are constructed.
+//
+
+
+import java.util.*;
+
+public class Workload {
+
+	public String name;                // workload name
+	public int size;                   // workload size parameter
+	public KnowledgeBase kb = new KnowledgeBase();
+	public List<Literal> queries = new ArrayList<Literal>();
+
+	static public final String[] names =
+		{ "facts", "ancestor", "wide", "nested", "rules", "embedded" };
+
+	// make -- Return the named workload, with the given size, asking the
+	// given number of queries chosen using the given seed.  Return null
+	// if there is no such workload.
+	static public Workload make(String name, int size, int count,
+			long seed) {
+		Random rng = new Random(seed);
+		Workload w = new Workload();
+		w.name = name;
+		w.size = size;
+		if (name.equals("facts")) {
+			for (int i = 0; i < size; i++)
+				w.kb.facts.add(literal("rel", constant("k" + i),
+						constant("v" + (i % 97))));
+			for (int q = 0; q < count; q++)
+				w.queries.add(literal("rel",
+						constant("k" + rng.nextInt(size)), variable("V")));
+		} else if (name.equals("ancestor")) {
+			for (int i = 0; i < size; i++)
+				w.kb.facts.add(literal("parent", constant("p" + i),
+						constant("p" + (i + 1))));
+			w.kb.rules.add(rule(literal("ancestor", variable("X"),
+					variable("Y")),
+					literal("parent", variable("X"), variable("Y"))));
+			w.kb.rules.add(rule(literal("ancestor", variable("X"),
+					variable("Y")),
+					literal("parent", variable("X"), variable("Z")),
+					literal("ancestor", variable("Z"), variable("Y"))));
+			for (int q = 0; q < count; q++) {
+				int from = rng.nextInt(size);
+				int to = from + 1 + rng.nextInt(size - from);
+				w.queries.add(literal("ancestor", constant("p" + from),
+						constant("p" + to)));
+			}
+		} else if (name.equals("wide")) {
+			int facts = 1000;
+			for (int i = 0; i < facts; i++) {
+				Term[] args = new Term[size];
+				for (int a = 0; a < size; a++)
+					args[a] = constant("c" + ((i + a) % facts));
+				w.kb.facts.add(literal("wide", args));
+			}
+			for (int q = 0; q < count; q++) {
+				int i = rng.nextInt(facts);
+				int free = rng.nextInt(size);
+				Term[] args = new Term[size];
+				for (int a = 0; a < size; a++)
+					args[a] = (a == free) ? variable("W")
+						: constant("c" + ((i + a) % facts));
+				w.queries.add(literal("wide", args));
+			}
+		} else if (name.equals("nested")) {
+			int facts = 100;
+			for (int i = 0; i < facts; i++)
+				w.kb.facts.add(literal("num", constant("n" + i),
+						nest(size, constant("z" + i))));
+			for (int q = 0; q < count; q++) {
+				int i = rng.nextInt(facts);
+				w.queries.add(literal("num", constant("n" + i),
+						nest(size / 2, variable("N"))));
+			}
+		} else if (name.equals("rules")) {
+			w.kb.facts.add(literal("base", constant("ok")));
+			for (int i = 0; i < size; i++)
+				w.kb.rules.add(rule(literal("pick", constant("r" + i),
+						variable("X")),
+						literal("base", variable("X"))));
+			for (int q = 0; q < count; q++)
+				w.queries.add(literal("pick",
+						constant("r" + rng.nextInt(size)), variable("R")));
+		} else if (name.equals("embedded")) {
+			for (int i = 0; i < size; i++)
+				w.kb.facts.add(literal("pair", constant("c" + i),
+						variable("U"), constant("d" + i)));
+			w.kb.facts.add(literal("pair", function("f", variable("X")),
+					variable("Z"), variable("X")));
+			for (int q = 0; q < count; q++) {
+				int k = rng.nextInt(size);
+				w.queries.add(literal("pair", variable("Y"),
+						constant("a" + k), constant("b" + k)));
+			}
+		} else {
+			return (null);
+		}
+		return (w);
+	}
+
+	// nest -- Return the term s(s(...s(t)...)) nested "depth" deep.
+	static Term nest(int depth, Term t) {
+		for (int d = 0; d < depth; d++)
+			t = function("s", t);
+		return (t);
+	}
+
+	// Term factories ...
+
+	static Term constant(String name) {
+		return (new Term(new Constant(name)));
+	}
+
+	static Term variable(String name) {
+		return (new Term(new Variable(name)));
+	}
+
+	static Term function(String name, Term... args) {
+		Function f = new Function(name);
+		f.args.addAll(Arrays.asList(args));
+		return (new Term(f));
+	}
+
+	static Literal literal(String pred, Term... args) {
+		Literal lit = new Literal(pred);
+		lit.args.addAll(Arrays.asList(args));
+		return (lit);
+	}
+
+	static Rule rule(Literal head, Literal... body) {
+		Rule r = new Rule();
+		r.consequent = head;
+		r.antecedents.addAll(Arrays.asList(body));
+		return (r);
+	}
+
+}
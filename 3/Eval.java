@@ -11,6 +11,33 @@
 // values and expected utility values should be between plus and minus
 // "State.win_payoff".
 //
+// Since every value is bounded in this way, the search can prune.  The
+// versions of the search functions that take "alpha" and "beta" bounds
+// implement a Star1-style expectimax search:  choice nodes are searched
+// with alpha-beta pruning, and chance nodes stop considering outcomes
+// once the probability mass that remains cannot bring the expected value
+// back inside of the window, using plus and minus "State.win_payoff" as
+// bounds on the value of each unexamined outcome.  These functions return
+// exact values for values strictly inside of the window, an upper bound
+// for values at or below "alpha", and a lower bound for values at or
+// above "beta".  Searching with the full window therefore returns exactly
+// the same value as the unpruned search.  Pruning is used by the one
+// argument version of "value" only when "prune" is true, which it is not
+// by default, or when the search context of the current thread asks for
+// it.  "PackedSearch" implements the same pruned search separately, over
+// packed states, and checks itself against this one.
+//
+// The depth limit and the heuristic evaluation function may be replaced
+// for the current thread by installing a "SearchContext" with "use".
+// This allows different search configurations to be run side by side in
+// different threads, such as during self-play.  A search context may
+// also supply a "TranspositionTable", in which case the values of the
+// choice states reached by "value" are remembered, keyed by the state and
+// the depth of search remaining below it, and reused when the same state
+// is reached again with the same depth remaining, whether in the same
+// search or a later one.  A search context may also be stopped, making
+// any search running with it return promptly with a meaningless value.
+//
 // Zombie Dice is a trademark of Steve Jackson Games.  For more information
 // about this game, see "zombiedice.sjgames.com".
 //
@@ -24,17 +51,59 @@ public class Eval {
     // the given heuristic evaluation function ...
     static public int depth_limit = 2;
 
+    // Use pruned search in "value(State)".  This is off by default, so
+    // that the default search is the plain expectimax search ...
+    static public boolean prune = false;
+
+    // Search configuration for each thread, if any ...
+    static final ThreadLocal<SearchContext> context =
+	new ThreadLocal<SearchContext>();
+
+    // use -- Install the given search context for the current thread,
+    //        or remove the current one if "c" is null.
+    static public void use (SearchContext c) {
+	if (c == null)
+	    context.remove();
+	else
+	    context.set(c);
+    }
+
     // value -- This public function returns the payoff value of 
     //          terminal states or the expected utility value of 
     //          non-terminal states, backing up heuristic evaluation 
     //          values once the given depth has reached the depth limit.
     static public double value (State s, int depth) {
+	SearchContext c = context.get();
+	int limit = (c == null) ? depth_limit : c.depth_limit;
 	// Stop searching once either a terminal state is reached or the
 	// depth limit is reached ...
-	if ((s.terminal()) || (depth >= depth_limit)) {
+	if ((s.terminal()) || (depth >= limit)) {
 	    return (s.payoff());
 	}
-	// Keep searching ...
+	if ((c == null) || (c.table == null))
+	    return (Eval.expand(s, depth));
+	if (c.stop)
+	    return (0.0);
+	// Only choice nodes are remembered.  Roll and stop nodes are one
+	// step from a choice node, so remembering the choice nodes saves
+	// nearly as much work, and the state need only be packed there ...
+	if (s.current_choice != Choice.undecided)
+	    return (Eval.expand(s, depth));
+	// Look for a remembered value before searching ...
+	long key = TranspositionTable.key(PackedState.fromState(s),
+					  limit - depth);
+	double val = c.table.get(key);
+	if (Double.isNaN(val)) {
+	    val = Eval.expand(s, depth);
+	    if (!c.stop)
+		c.table.put(key, val);
+	}
+	return (val);
+    }
+
+    // expand -- Return the expected utility value of a non-terminal
+    //           state above the depth limit, by searching its children.
+    static double expand (State s, int depth) {
 	switch (s.current_choice) {
 	case roll:
 	    return (Eval.value_roll(s, depth));
@@ -53,7 +122,12 @@ public class Eval {
     //          non-terminal states, backing up heuristic evaluation 
     //          values once the given depth has reached the depth limit.
     static public double value (State s) {
-	return (Eval.value(s, 0));
+	SearchContext c = context.get();
+	if ((c == null) ? prune : c.prune) {
+	    return (Eval.value(s, 0, -State.win_payoff, State.win_payoff));
+	} else {
+	    return (Eval.value(s, 0));
+	}
     }
 
     // value_rolled_hand -- Compute the expected utility value of this 
@@ -240,13 +314,298 @@ public class Eval {
 	}
     }
 
+    // value -- This public function returns the payoff value of terminal
+    //          states or the expected utility value of non-terminal
+    //          states, as above, but only as precisely as is needed to
+    //          compare it to the window from "alpha" to "beta".
+    static public double value (State s, int depth,
+				double alpha, double beta) {
+	SearchContext c = context.get();
+	int limit = (c == null) ? depth_limit : c.depth_limit;
+	// Stop searching once either a terminal state is reached or the
+	// depth limit is reached ...
+	if ((s.terminal()) || (depth >= limit)) {
+	    return (s.payoff());
+	}
+	if ((c == null) || (c.table == null))
+	    return (Eval.expand(s, depth, alpha, beta));
+	if (c.stop)
+	    return (0.0);
+	// As above, only choice nodes are remembered ...
+	if (s.current_choice != Choice.undecided)
+	    return (Eval.expand(s, depth, alpha, beta));
+	// Look for a remembered value before searching.  Only values that
+	// fall strictly inside of the window are exact, so only those are
+	// remembered ...
+	long key = TranspositionTable.key(PackedState.fromState(s),
+					  limit - depth);
+	double val = c.table.get(key);
+	if (Double.isNaN(val)) {
+	    val = Eval.expand(s, depth, alpha, beta);
+	    if ((!c.stop) && (val > alpha) && (val < beta))
+		c.table.put(key, val);
+	}
+	return (val);
+    }
+
+    // expand -- Return the expected utility value of a non-terminal
+    //           state above the depth limit, within the given window, by
+    //           searching its children.
+    static double expand (State s, int depth, double alpha, double beta) {
+	switch (s.current_choice) {
+	case roll:
+	    return (Eval.value_roll(s, depth, alpha, beta));
+	case stop:
+	    return (Eval.value_stop(s, depth, alpha, beta));
+	case undecided:
+	    return (Eval.value_choose(s, depth, alpha, beta));
+	default:
+	    // We should never get here ...
+	    return (0.0);
+	}
+    }
+
+    // child_alpha -- Return the lower bound of the window for the next
+    //                outcome of a chance node, given the weighted sum of
+    //                the outcomes seen so far, the probability of this
+    //                outcome, and the probability of the outcomes after it.
+    static double child_alpha (double alpha, double sum,
+			       double prob, double rest) {
+	double a = (alpha - sum - (rest * State.win_payoff)) / prob;
+	return (Math.max(a, -State.win_payoff));
+    }
+
+    // child_beta -- Return the upper bound of the window for the next
+    //               outcome of a chance node, as for "child_alpha".
+    static double child_beta (double beta, double sum,
+			      double prob, double rest) {
+	double b = (beta - sum + (rest * State.win_payoff)) / prob;
+	return (Math.min(b, State.win_payoff));
+    }
+
+    // value_rolled_hand -- Compute the expected utility value of this
+    //                      state, given that the hand has just been
+    //                      rolled, within the given window.
+    static double value_rolled_hand (State rolled_s, int depth,
+				     double alpha, double beta) {
+	State s = new State(rolled_s);
+	double val = 0.0;                // return value
+
+	// Collect brain and blast dice from the hand ...
+	s.collectHand();
+	if (s.shotgunned()) {
+	    // This turn is over ...
+	    s.current_choice = Choice.stop;
+	    val = Eval.value(s, depth, alpha, beta);
+	} else {
+	    // The roll is done, but the turn is not ...
+	    s.current_choice = Choice.undecided;
+	    val = Eval.value(s, (depth + 1), alpha, beta);
+	}
+	s = null;
+	return (val);
+    }
+
+    // value_roll_hand -- Compute the expected utility value of this
+    //                    state, given that the hand is full, within the
+    //                    given window.  Outcomes are skipped once they
+    //                    cannot bring the value back inside the window.
+    static double value_roll_hand (State s, int depth,
+				   double alpha, double beta) {
+	double sum = 0.0;           // weighted sum of outcomes so far
+	double rest = 0.0;          // probability of unexamined outcomes
+
+	// Find the total probability of all outcomes ...
+	for (DieFace d1 : DieFace.values()) {
+	    for (DieFace d2 : DieFace.values()) {
+		for (DieFace d3 : DieFace.values()) {
+		    if ((d1 != DieFace.invalid) && (d2 != DieFace.invalid)
+			&& (d3 != DieFace.invalid))
+			rest += s.rollProb(d1, d2, d3);
+		}
+	    }
+	}
+	for (DieFace d1 : DieFace.values()) {
+	    if (d1 == DieFace.invalid)
+		continue;
+	    for (DieFace d2 : DieFace.values()) {
+		if (d2 == DieFace.invalid)
+		    continue;
+		for (DieFace d3 : DieFace.values()) {
+		    if (d3 == DieFace.invalid)
+			continue;
+		    double prob = s.rollProb(d1, d2, d3);
+		    if (prob <= 0.0)
+			continue;
+		    rest -= prob;
+		    s.roll(d1, d2, d3);
+		    double value =
+			value_rolled_hand(s, depth,
+					  child_alpha(alpha, sum, prob, rest),
+					  child_beta(beta, sum, prob, rest));
+		    sum += (prob * value);
+		    // Check whether the remaining outcomes matter ...
+		    double upper = sum + (rest * State.win_payoff);
+		    if (upper <= alpha)
+			return (upper);
+		    double lower = sum - (rest * State.win_payoff);
+		    if (lower >= beta)
+			return (lower);
+		}
+	    }
+	}
+	return (sum);
+    }
+
+    // value_roll -- Compute the expected utility value of this state,
+    //               given that the current player will be immediately
+    //               drawing dice and rolling, within the given window.
+    static double value_roll (State s, int depth,
+			      double alpha, double beta) {
+	if (s.numDiceInHand() == State.hand_size) {
+	    // Consider all possible results of rolling the hand ...
+	    return (Eval.value_roll_hand(s, depth, alpha, beta));
+	}
+	if (s.cupIsEmpty()) {
+	    // Reuse collected brain dice, according to the official rules ...
+	    State refilled_state = new State(s);
+	    refilled_state.reuseBrains();
+	    return (Eval.value_roll(refilled_state, depth, alpha, beta));
+	}
+	double sum = 0.0;           // weighted sum of outcomes so far
+	double rest = 0.0;          // probability of unexamined outcomes
+	for (DieColor c : DieColor.values()) {
+	    if (c != DieColor.invalid)
+		rest += s.drawProb(c);
+	}
+	// Iterate over all possible colors for the next die ...
+	for (DieColor c : DieColor.values()) {
+	    if (c == DieColor.invalid)
+		continue;
+	    double this_draw_prob = s.drawProb(c);
+	    if (this_draw_prob <= 0.0)
+		continue;
+	    Die d = s.draw(c);
+	    if (d == null)
+		continue;
+	    rest -= this_draw_prob;
+	    double draw_val =
+		Eval.value_roll(s, depth,
+				child_alpha(alpha, sum, this_draw_prob, rest),
+				child_beta(beta, sum, this_draw_prob, rest));
+	    s.replace(d);
+	    sum += (draw_val * this_draw_prob);
+	    // Check whether the remaining colors matter ...
+	    double upper = sum + (rest * State.win_payoff);
+	    if (upper <= alpha)
+		return (upper);
+	    double lower = sum - (rest * State.win_payoff);
+	    if (lower >= beta)
+		return (lower);
+	}
+	return (sum);
+    }
+
+    // value_stop -- Compute the expected utility value of this state,
+    //               given that the current player will not continue to
+    //               roll, within the given window.
+    static double value_stop (State stop_s, int depth,
+			      double alpha, double beta) {
+	State s = new State(stop_s);
+	double val = 0.0;                // return value
+
+	s.endTurn();
+	if (s.terminal()) {
+	    val = s.payoff();
+	} else {
+	    s.nextPlayer();
+	    val = Eval.value(s, (depth + 1), alpha, beta);
+	}
+	s = null;
+	return (val);
+    }
+
+    // value_choose -- Compute the value of the better of rolling and
+    //                 stopping for the current player, within the given
+    //                 window.  Once one action is known to be at least as
+    //                 good for the current player as the window allows,
+    //                 the other action need not be examined, and the value
+    //                 of the first action narrows the window for the other.
+    static double value_choose (State s, int depth,
+				double alpha, double beta) {
+	double eu_roll;  // expected utility value of rolling
+	double eu_stop;  // expected utility value of stoping
+
+	// Always roll if no brains have been collected ...
+	if (s.brains_collected == 0) {
+	    s.current_choice = Choice.roll;
+	    eu_roll = Eval.value(s, depth, alpha, beta);
+	    s.current_choice = Choice.undecided;
+	    return (eu_roll);
+	}
+	s.current_choice = Choice.roll;
+	eu_roll = Eval.value(s, depth, alpha, beta);
+	if (s.current_player == Turn.computer) {
+	    // MAX node -- Looking for high values ...
+	    if (eu_roll >= beta) {
+		s.current_choice = Choice.undecided;
+		return (eu_roll);
+	    }
+	    s.current_choice = Choice.stop;
+	    eu_stop = Eval.value(s, depth, Math.max(alpha, eu_roll), beta);
+	    s.current_choice = Choice.undecided;
+	    return (Math.max(eu_roll, eu_stop));
+	} else {
+	    // MIN node -- Looking for low values ...
+	    if (eu_roll <= alpha) {
+		s.current_choice = Choice.undecided;
+		return (eu_roll);
+	    }
+	    s.current_choice = Choice.stop;
+	    eu_stop = Eval.value(s, depth, alpha, Math.min(beta, eu_roll));
+	    s.current_choice = Choice.undecided;
+	    return (Math.min(eu_roll, eu_stop));
+	}
+    }
+
+    // choose -- Return the better of rolling and stopping for the current
+    //           player in the given undecided state, according to the
+    //           expected utility values of the two actions.  Ties are
+    //           broken toward rolling, as in "value_choose".
+    static public Choice choose (State s) {
+	// Always roll if no brains have been collected ...
+	if (s.brains_collected == 0)
+	    return (Choice.roll);
+	State roll_s = new State(s);
+	roll_s.current_choice = Choice.roll;
+	double eu_roll = Eval.value(roll_s);
+	State stop_s = new State(s);
+	stop_s.current_choice = Choice.stop;
+	double eu_stop = Eval.value(stop_s);
+	if (s.current_player == Turn.computer)
+	    return ((eu_roll >= eu_stop) ? Choice.roll : Choice.stop);
+	else
+	    return ((eu_roll <= eu_stop) ? Choice.roll : Choice.stop);
+    }
+
     // heuristic -- Compute a heuristic evaluation function value for the
     //              specified State object.  This function must be
     //              calculated quickly, with no look-ahead search, and it
     //              should be bounded between plus and minus the value of
     //              "State.win_payoff".  The heuristic evaluation value
-    //              is returned.
+    //              is returned.  The heuristic of the search context of
+    //              the current thread is used, if it has one.
     static public double heuristic (State s) {
+	SearchContext c = context.get();
+	if ((c != null) && (c.heuristic != null))
+	    return (c.heuristic.value(s));
+	return (Eval.step_heuristic(s));
+    }
+
+    // step_heuristic -- The default heuristic evaluation function, which
+    //                   maps the difference in brains eaten to a few
+    //                   fixed values, scaled up near the end of the game.
+    static public double step_heuristic (State s) {
 	// Heuristic value to be returned ...
 	double value = 0.0;
 
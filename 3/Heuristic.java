@@ -0,0 +1,44 @@
+//
+// Heuristic
+//
+// This interface is implemented by heuristic evaluation functions for
+// Zombie Dice game states.  Like "Eval.heuristic", implementations must
+// be fast, must not perform look-ahead search, and must return values
+// between plus and minus "State.win_payoff".  A heuristic is put to use
+// by installing it in a "SearchContext".
+//
+
+
+public interface Heuristic {
+
+    // step -- The default hand-coded heuristic of "Eval" ...
+    static final Heuristic step = Eval::step_heuristic;
+
+    // value -- Return the heuristic evaluation value of the given state.
+    public double value (State s);
+
+    // named -- Return the heuristic with the given name, or null if there
+    //          is no such heuristic.  The name "table=<file>" loads a
+    //          "TableHeuristic" from the given file, and "net=<file>"
+    //          loads a "NetHeuristic".  "NetHeuristic" is found by name
+    //          when it is asked for, so that the other heuristics may be
+    //          used without the network classes, in which case "net="
+    //          names no heuristic.
+    static public Heuristic named (String name) {
+	if (name.equals("step"))
+	    return (step);
+	if (name.startsWith("table="))
+	    return (TableHeuristic.load(name.substring(6)));
+	if (name.startsWith("net=")) {
+	    try {
+		Class<?> net = Class.forName("NetHeuristic");
+		return ((Heuristic) net.getMethod("load", String.class)
+			.invoke(null, name.substring(4)));
+	    } catch (ReflectiveOperationException | LinkageError e) {
+		return (null);
+	    }
+	}
+	return (null);
+    }
+
+}
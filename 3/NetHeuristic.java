@@ -0,0 +1,339 @@
+//
+// NetHeuristic
+//
+// This class is a "Heuristic" that evaluates a state with a small neural
+// network of "Layer" and "Projection" objects, trained to approximate the
+// value that deeper look-ahead search would find.  The input layer holds
+// a fixed vector of features of the state (scores, the current player,
+// the brains, blasts and dice of the current turn, and the dice left in
+// the cup), scaled to lie between zero and one.  A hidden layer feeds a
+// single output unit whose activation range is plus and minus
+// "State.win_payoff".
+//
+// Training states are collected from games of self-play, played in
+// parallel by "PackedSearch" using the current network at its depth
+// limit, with an occasional random choice so that the states reached by
+// poor play are seen as well.  The target value of each state is found by
+// a deeper "PackedSearch", also in parallel, and the network is fit to
+// the targets by mini-batch training of a compiled "Plan" with "Adam".
+// Rounds of training may be repeated, each one searching with the network
+// of the previous round at the depth limit, so that the targets see
+// further ahead each round.  The first round searches with the default
+// heuristic.
+//
+// Evaluation is one forward pass over a few hundred weights, so the
+// network may be used at the depth limit of a shallow search in place of
+// deeper search.  Each thread evaluates with its own copy of the
+// compiled network.  Networks are saved as a "Checkpoint" file which may
+// be named in a policy description as "net=<file>".
+//
+// The "Layer" classes are in the neural network directory, which must be
+// on the class path when compiling and running this class.
+//
+// Usage:  java NetHeuristic <games> <depth> <rounds> <epochs> <seed> <file>
+//
+
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.stream.IntStream;
+
+
+public class NetHeuristic implements PackedHeuristic {
+
+    // Network dimensions ...
+    static final int features = 21;     // input units
+    static public int hidden = 24;      // hidden units
+
+    // Training settings ...
+    static public int play_depth = 1;   // look-ahead of self-play moves
+    static public double explore = 0.1; // chance of a random choice
+    static public int batch = 32;       // patterns per parameter update
+    static public double rate = 0.003;  // learning rate
+
+    public Layer[] net;                 // input, hidden and output layers
+
+    // Squashing function used for evaluation, to within 0.01 brains ...
+    static final SigmoidTable squash_table =
+	new SigmoidTable(0.01 / (2.0 * State.win_payoff));
+
+    // Compiled copies of the network, for each thread ...
+    ThreadLocal<Evaluator> evaluators;
+
+    // Evaluator -- One thread's compiled network and buffers.
+    static class Evaluator {
+	Plan plan;
+	double[] input = new double[features];
+	double[] output = new double[1];
+    }
+
+    // Constructor with the layers of the network specified ...
+    public NetHeuristic (Layer[] net) {
+	this.net = net;
+	refresh();
+    }
+
+    // Constructor for a new, randomly initialized network ...
+    public NetHeuristic () {
+	Layer in = new Layer(features);
+	Layer mid = new Layer(hidden, -1.0, 1.0);
+	Layer out = new Layer(1, -State.win_payoff, State.win_payoff);
+	Projection p = new Projection(features, hidden);
+	p.W.randomize(-0.3, 0.3);
+	in.addOutputProjection(p);
+	mid.addInputProjection(p);
+	Projection q = new Projection(hidden, 1);
+	q.W.randomize(-0.3, 0.3);
+	mid.addOutputProjection(q);
+	out.addInputProjection(q);
+	mid.randomizeBiases(-0.1, 0.1);
+	out.randomizeBiases(-0.1, 0.1);
+	this.net = new Layer[] { in, mid, out };
+	refresh();
+    }
+
+    // refresh -- Discard the compiled copies of the network, so that
+    //            changes to its layers are seen by later evaluations.
+    void refresh () {
+	final Layer[] layers = net;
+	evaluators = ThreadLocal.withInitial(() -> {
+		Evaluator e = new Evaluator();
+		e.plan = Plan.compile(layers);
+		for (int l = 0; l < e.plan.layers; l++)
+		    e.plan.table[l] = squash_table;
+		return (e);
+	    });
+    }
+
+    public double value (State s) {
+	return (value(PackedState.fromState(s)));
+    }
+
+    // value -- Return the heuristic evaluation value of a packed state,
+    //          without making a "State".
+    public double value (long s) {
+	Evaluator e = evaluators.get();
+	encode(s, e.input);
+	e.plan.forward(e.input);
+	return (e.plan.output(0, e.output)[0]);
+    }
+
+    // encode -- Store the features of a packed state in the given array.
+    static void encode (long s, double[] x) {
+	double goal = TableHeuristic.goal;
+	int comp = PackedState.compBrainsEaten(s);
+	int user = PackedState.userBrainsEaten(s);
+	int brains = PackedState.brainsCollected(s);
+	int blasts = PackedState.blastsCollected(s);
+	boolean computer = (PackedState.currentPlayer(s) == Turn.computer);
+	int mine = computer ? comp : user;
+	int at = 0;
+	x[at++] = Math.min(comp / goal, 1.5);
+	x[at++] = Math.min(user / goal, 1.5);
+	x[at++] = computer ? 0.0 : 1.0;
+	x[at++] = Math.min(brains / goal, 1.5);
+	x[at++] = Math.min((mine + brains) / goal, 1.5);
+	x[at++] = ((mine + brains) >= goal) ? 1.0 : 0.0;
+	x[at++] = (comp >= goal) ? 1.0 : 0.0;
+	x[at++] = (user >= goal) ? 1.0 : 0.0;
+	for (int b = 0; b < 3; b++)
+	    x[at++] = (blasts == b) ? 1.0 : 0.0;
+	for (int c = 0; c < 3; c++) {
+	    int held = 0;
+	    for (int i = 0; i < State.hand_size; i++)
+		if (PackedState.slotColor(s, i) == c)
+		    held++;
+	    double full = PackedState.dice[c];
+	    x[at++] = PackedState.cup(s, c) / full;
+	    x[at++] = PackedState.setAside(s, c) / full;
+	    x[at++] = held / (double) State.hand_size;
+	}
+	x[at++] = PackedState.cupIsEmpty(s) ? 1.0 : 0.0;
+    }
+
+    // play -- Play one game of self-play, choosing moves by search to
+    //         "play_depth" using "h" at the depth limit, and add the
+    //         undecided states reached to the given list.
+    static void play (Heuristic h, SplittableRandom rng, List<Long> states) {
+	PackedSearch search = PackedSearch.forThread(play_depth, h);
+	State s = new State();
+	s.current_player = rng.nextBoolean() ? Turn.computer : Turn.user;
+	s.current_choice = Choice.undecided;
+	for (int turn = 0; turn < 1000; turn++) {
+	    long packed = PackedState.fromState(s);
+	    states.add(packed);
+	    Choice c;
+	    if (rng.nextDouble() < explore)
+		c = rng.nextBoolean() ? Choice.roll : Choice.stop;
+	    else
+		c = search.choose(packed);
+	    if ((c == Choice.roll) || (s.brains_collected == 0)) {
+		s.current_choice = Choice.roll;
+		SelfPlay.rollHand(s, rng);
+		s.collectHand();
+		if (!s.shotgunned()) {
+		    s.current_choice = Choice.undecided;
+		    continue;
+		}
+	    }
+	    s.current_choice = Choice.stop;
+	    s.endTurn();
+	    if (s.terminal())
+		return;
+	    s.nextPlayer();
+	    s.current_choice = Choice.undecided;
+	}
+    }
+
+    // collect -- Return the undecided states reached in the given number of
+    //            games of self-play, played in parallel.
+    static long[] collect (int games, Heuristic h, long seed) {
+	SplittableRandom rng = new SplittableRandom(seed);
+	SplittableRandom[] rngs = new SplittableRandom[games];
+	for (int g = 0; g < games; g++)
+	    rngs[g] = rng.split();
+	List<List<Long>> found = new ArrayList<List<Long>>();
+	for (int g = 0; g < games; g++)
+	    found.add(new ArrayList<Long>());
+	IntStream.range(0, games).parallel()
+	    .forEach(g -> play(h, rngs[g], found.get(g)));
+	int count = 0;
+	for (List<Long> l : found)
+	    count += l.size();
+	long[] states = new long[count];
+	int at = 0;
+	for (List<Long> l : found)
+	    for (long s : l)
+		states[at++] = s;
+	return (states);
+    }
+
+    // targets -- Return the values of the given states, found in parallel
+    //            by search to the given depth using "h" at the depth
+    //            limit.
+    static double[] targets (long[] states, int depth, Heuristic h) {
+	double[] values = new double[states.length];
+	IntStream.range(0, states.length).parallel().forEach(i -> {
+		values[i] = PackedSearch.forThread(depth, h).value(states[i]);
+	    });
+	return (values);
+    }
+
+    // train -- Fit the network to the given target values of the given
+    //          states, with the given number of passes over them, and
+    //          return the root mean squared error of the final pass.
+    public double train (long[] states, double[] values, int epochs,
+			 long seed) {
+	Plan plan = Plan.compile(net);
+	Adam opt = new Adam(rate);
+	SplittableRandom rng = new SplittableRandom(seed);
+	int[] order = new int[states.length];
+	for (int i = 0; i < order.length; i++)
+	    order[i] = i;
+	double[] x = new double[features];
+	double[] y = new double[1];
+	double[] out = new double[1];
+	double error = 0.0;
+	for (int epoch = 0; epoch < epochs; epoch++) {
+	    for (int i = order.length - 1; i > 0; i--) {
+		int j = rng.nextInt(i + 1);
+		int t = order[i];
+		order[i] = order[j];
+		order[j] = t;
+	    }
+	    error = 0.0;
+	    plan.clearDeltas();
+	    for (int i = 0; i < order.length; i++) {
+		encode(states[order[i]], x);
+		y[0] = values[order[i]];
+		plan.forward(x);
+		double e = y[0] - plan.output(0, out)[0];
+		error += e * e;
+		plan.backward(y);
+		if (((i + 1) % batch == 0) || (i == order.length - 1)) {
+		    plan.update(opt);
+		    plan.clearDeltas();
+		}
+	    }
+	}
+	plan.store();
+	refresh();
+	return (Math.sqrt(error / Math.max(states.length, 1)));
+    }
+
+    // error -- Return the root mean squared error of this network on the
+    //          given target values of the given states.
+    public double error (long[] states, double[] values) {
+	double error = 0.0;
+	for (int i = 0; i < states.length; i++) {
+	    double e = values[i] - value(states[i]);
+	    error += e * e;
+	}
+	return (Math.sqrt(error / Math.max(states.length, 1)));
+    }
+
+    // save -- Write this network to the named file, returning false on
+    //         error.
+    public boolean save (String file) {
+	return (Checkpoint.save(net, file));
+    }
+
+    // load -- Read a network from the named file, returning null on error.
+    static public NetHeuristic load (String file) {
+	Checkpoint c = Checkpoint.open(file);
+	if ((c == null) || (c.layers != 3) || (c.n[0] != features)
+	    || (c.n[2] != 1))
+	    return (null);
+	return (new NetHeuristic(c.toLayers()));
+    }
+
+    // main -- Train a network from the command line ...
+    public static void main (String[] args) {
+	if (args.length < 6) {
+	    System.err.println("Usage:  java NetHeuristic <games> <depth> "
+			       + "<rounds> <epochs> <seed> <file>");
+	    System.exit(1);
+	}
+	int games = Integer.parseInt(args[0]);
+	int depth = Integer.parseInt(args[1]);
+	int rounds = Integer.parseInt(args[2]);
+	int epochs = Integer.parseInt(args[3]);
+	long seed = Long.parseLong(args[4]);
+	NetHeuristic net = new NetHeuristic();
+	Heuristic h = Heuristic.step;
+	long[] held = null;
+	double[] held_values = null;
+	for (int r = 0; r < rounds; r++) {
+	    long start = System.nanoTime();
+	    long[] states = collect(games, h, seed + 2 * r);
+	    double[] values = targets(states, depth, h);
+	    double rmse = net.train(states, values, epochs, seed + 2 * r);
+	    held = collect(Math.max(games / 4, 1), h, seed + 2 * r + 1);
+	    held_values = targets(held, depth, h);
+	    System.out.printf("round %d:  %d states, rms error %.3f, "
+			      + "held out %.3f, %.1f s%n", r,
+			      states.length, rmse,
+			      net.error(held, held_values),
+			      (System.nanoTime() - start) / 1e9);
+	    h = net;
+	}
+	if (held == null)
+	    System.exit(1);
+	State[] probe = new State[Math.min(held.length, 1024)];
+	for (int i = 0; i < probe.length; i++)
+	    probe[i] = PackedState.toState(held[i]);
+	// Time each heuristic once, discarding the result, so that it has
+	// been compiled before it is timed ...
+	TableHeuristic.cost(net, probe, 1000);
+	TableHeuristic.cost(Heuristic.step, probe, 1000);
+	System.out.printf("cost:  net %.1f ns/call, step %.1f ns/call%n",
+			  TableHeuristic.cost(net, probe, 1000),
+			  TableHeuristic.cost(Heuristic.step, probe, 1000));
+	if (!net.save(args[5])) {
+	    System.err.println("NetHeuristic:  cannot write " + args[5]);
+	    System.exit(1);
+	}
+    }
+
+}
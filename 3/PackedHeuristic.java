@@ -0,0 +1,16 @@
+//
+// PackedHeuristic
+//
+// This interface is implemented by heuristic evaluation functions that
+// can evaluate a state encoded by "PackedState" directly.  "PackedSearch"
+// uses this form when its heuristic provides it, so that no "State" need
+// be filled in at the depth limit.
+//
+
+
+public interface PackedHeuristic extends Heuristic {
+
+    // value -- Return the heuristic evaluation value of a packed state.
+    public double value (long s);
+
+}
@@ -0,0 +1,47 @@
+//
+// PackedPolicy
+//
+// This class is a "Policy" that decides using "PackedSearch", searching
+// packed states to its own depth limit with its own heuristic evaluation
+// function.  It makes the same decisions as the "SearchPolicy" with the
+// same settings, which "PackedSearch.main" checks, without allocating
+// per node.  Each thread that uses the policy searches with its own
+// "PackedSearch" object.
+//
+
+
+public class PackedPolicy implements Policy {
+
+    public int depth_limit;             // depth limit for look-ahead
+    public Heuristic heuristic;         // heuristic, or null for default
+    public String heuristic_name;       // description of the heuristic
+
+    // Constructor ...
+    public PackedPolicy (int depth_limit, Heuristic heuristic,
+			 String heuristic_name) {
+	this.depth_limit = depth_limit;
+	this.heuristic = heuristic;
+	this.heuristic_name = heuristic_name;
+    }
+
+    // parse -- Return the policy described by "depth" or "depth:name",
+    //          as for "SearchPolicy.parse".  Return null if the
+    //          description is not valid.
+    static public PackedPolicy parse (String spec) {
+	SearchPolicy p = SearchPolicy.parse(spec);
+	if ((p == null) || p.prune)
+	    return (null);
+	return (new PackedPolicy(p.depth_limit, p.heuristic,
+				 p.heuristic_name));
+    }
+
+    public String name () {
+	return ("depth " + depth_limit + " " + heuristic_name + " packed");
+    }
+
+    public Choice choose (State s) {
+	PackedSearch search = PackedSearch.forThread(depth_limit, heuristic);
+	return (search.choose(PackedState.fromState(s)));
+    }
+
+}
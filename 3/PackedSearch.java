@@ -0,0 +1,315 @@
+//
+// PackedSearch
+//
+// This class implements the pruned expected utility search of "Eval"
+// separately, with the same depth accounting and the same Star1 pruning,
+// over states encoded by "PackedState" rather than "State" objects.  It
+// is used by "PackedPolicy" and by "NetHeuristic".  Since a packed state
+// is a single "long", children are made by arithmetic rather than
+// by copying, and dice are two-bit color and face codes in the state, so
+// no "Die" objects are drawn or replaced.  The search allocates nothing
+// per node once it is running.
+//
+// The heuristic evaluation function is applied at the depth limit.  A
+// "PackedHeuristic", such as "TableHeuristic", reads the packed state
+// directly.  Any other heuristic is given a scratch "State" owned by the
+// search, which is refilled in place from the packed state, with a fixed
+// set of "Die" objects standing in for the dice in the hand, so such a
+// heuristic must not keep a reference to the state it is given.
+//
+// A search object holds scratch storage, so it must only be used by one
+// thread at a time; "forThread" returns a search object belonging to the
+// current thread.  A "TranspositionTable" may be supplied to remember
+// values, as with "SearchContext".
+//
+// Since the packed rules are written separately from those of "State",
+// "main" checks this search against "Eval" on randomly sampled states:
+//
+// Usage:  java PackedSearch <states> <depth> <seed> [heuristic]
+//
+// It reports the largest difference in value and the number of
+// different decisions, and exits with status 1 if there are any.  Ties
+// between actions whose values differ only by rounding are reported
+// separately, since they may be broken either way.
+//
+
+
+import java.util.SplittableRandom;
+
+
+public class PackedSearch {
+
+    public int depth_limit;             // depth limit for look-ahead
+    public Heuristic heuristic;         // heuristic, or null for default
+    public TranspositionTable table;    // remembered values, or null
+    public long nodes;                  // states searched
+
+    // Scratch storage for non-table heuristics ...
+    final State scratch = new State();
+    final Die[] dice = new Die[State.hand_size];
+
+    // Cached enumeration values ...
+    static final DieColor[] colors = DieColor.values();
+    static final DieFace[] faces = DieFace.values();
+
+    // Search objects for each thread ...
+    static final ThreadLocal<PackedSearch> searches =
+	ThreadLocal.withInitial(() -> new PackedSearch(Eval.depth_limit,
+						       null));
+
+    // Constructor ...
+    public PackedSearch (int depth_limit, Heuristic heuristic) {
+	this.depth_limit = depth_limit;
+	this.heuristic = heuristic;
+	for (int i = 0; i < State.hand_size; i++)
+	    dice[i] = new Die(DieColor.green);
+    }
+
+    // forThread -- Return the search object of the current thread, set
+    //              to use the given depth limit and heuristic.
+    static public PackedSearch forThread (int depth_limit,
+					  Heuristic heuristic) {
+	PackedSearch p = searches.get();
+	p.depth_limit = depth_limit;
+	p.heuristic = heuristic;
+	p.table = null;
+	return (p);
+    }
+
+    // value -- Return the value of a state, searched to the depth limit.
+    public double value (long s) {
+	return (value(s, 0, -State.win_payoff, State.win_payoff));
+    }
+
+    // choose -- Return the better of rolling and stopping for the current
+    //           player in the given undecided state.
+    public Choice choose (long s) {
+	if (PackedState.brainsCollected(s) == 0)
+	    return (Choice.roll);
+	double eu_roll = value(PackedState.withChoice(s, Choice.roll));
+	double eu_stop = value(PackedState.withChoice(s, Choice.stop));
+	if (PackedState.currentPlayer(s) == Turn.computer)
+	    return ((eu_roll >= eu_stop) ? Choice.roll : Choice.stop);
+	else
+	    return ((eu_roll <= eu_stop) ? Choice.roll : Choice.stop);
+    }
+
+    // evaluate -- Return the payoff of a terminal state, or else the
+    //             heuristic value of a state at the depth limit.
+    double evaluate (long s) {
+	if (PackedState.terminal(s))
+	    return (PackedState.payoff(s));
+	if (heuristic instanceof PackedHeuristic)
+	    return (((PackedHeuristic) heuristic).value(s));
+	load(s);
+	if (heuristic != null)
+	    return (heuristic.value(scratch));
+	return (Eval.heuristic(scratch));
+    }
+
+    // load -- Refill the scratch state from a packed state, in place.
+    void load (long s) {
+	State st = scratch;
+	for (int c = 0; c < 3; c++) {
+	    st.cup[c] = PackedState.cup(s, c);
+	    st.brain_colors[c] = PackedState.setAside(s, c);
+	}
+	for (int i = 0; i < State.hand_size; i++) {
+	    int color = PackedState.slotColor(s, i);
+	    if (color < 0) {
+		st.hand[i] = null;
+	    } else {
+		dice[i].color = colors[color];
+		dice[i].face = faces[PackedState.slotFace(s, i)];
+		st.hand[i] = dice[i];
+	    }
+	}
+	st.brains_collected = PackedState.brainsCollected(s);
+	st.blasts_collected = PackedState.blastsCollected(s);
+	st.comp_brains_eaten = PackedState.compBrainsEaten(s);
+	st.user_brains_eaten = PackedState.userBrainsEaten(s);
+	st.current_player = PackedState.currentPlayer(s);
+	st.current_choice = PackedState.currentChoice(s);
+    }
+
+    // value -- Return the value of a state, searched from the given depth,
+    //          only as precisely as is needed to compare it to the window
+    //          from "alpha" to "beta", as described in "Eval".
+    double value (long s, int depth, double alpha, double beta) {
+	nodes++;
+	if (PackedState.terminal(s) || (depth >= depth_limit))
+	    return (evaluate(s));
+	long key = 0L;
+	if (table != null) {
+	    key = TranspositionTable.key(s, depth_limit - depth);
+	    double v = table.get(key);
+	    if (!Double.isNaN(v))
+		return (v);
+	}
+	double v;
+	switch ((int) (s >>> PackedState.choice_shift) & 3) {
+	case 0:
+	    v = value_roll(s, depth, alpha, beta);
+	    break;
+	case 1:
+	    v = value_stop(s, depth, alpha, beta);
+	    break;
+	default:
+	    v = value_choose(s, depth, alpha, beta);
+	    break;
+	}
+	if ((table != null) && (v > alpha) && (v < beta))
+	    table.put(key, v);
+	return (v);
+    }
+
+    double value_rolled_hand (long s, int depth, double alpha, double beta) {
+	s = PackedState.collectHand(s);
+	if (PackedState.shotgunned(s))
+	    return (value(PackedState.withChoice(s, Choice.stop), depth,
+			  alpha, beta));
+	return (value(PackedState.withChoice(s, Choice.undecided),
+		      depth + 1, alpha, beta));
+    }
+
+    double value_roll_hand (long s, int depth, double alpha, double beta) {
+	double sum = 0.0;           // weighted sum of outcomes so far
+	double rest = 0.0;          // probability of unexamined outcomes
+	for (int f1 = 0; f1 < 3; f1++)
+	    for (int f2 = 0; f2 < 3; f2++)
+		for (int f3 = 0; f3 < 3; f3++)
+		    rest += PackedState.rollProb(s, f1, f2, f3);
+	for (int f1 = 0; f1 < 3; f1++) {
+	    for (int f2 = 0; f2 < 3; f2++) {
+		for (int f3 = 0; f3 < 3; f3++) {
+		    double prob = PackedState.rollProb(s, f1, f2, f3);
+		    if (prob <= 0.0)
+			continue;
+		    rest -= prob;
+		    double v = value_rolled_hand(
+			PackedState.roll(s, f1, f2, f3), depth,
+			Eval.child_alpha(alpha, sum, prob, rest),
+			Eval.child_beta(beta, sum, prob, rest));
+		    sum += prob * v;
+		    double upper = sum + (rest * State.win_payoff);
+		    if (upper <= alpha)
+			return (upper);
+		    double lower = sum - (rest * State.win_payoff);
+		    if (lower >= beta)
+			return (lower);
+		}
+	    }
+	}
+	return (sum);
+    }
+
+    double value_roll (long s, int depth, double alpha, double beta) {
+	if (PackedState.numDiceInHand(s) == State.hand_size)
+	    return (value_roll_hand(s, depth, alpha, beta));
+	if (PackedState.cupIsEmpty(s))
+	    return (value_roll(PackedState.reuseBrains(s), depth,
+			       alpha, beta));
+	double sum = 0.0;           // weighted sum of outcomes so far
+	double rest = 0.0;          // probability of unexamined outcomes
+	for (int c = 0; c < 3; c++)
+	    rest += PackedState.drawProb(s, c);
+	for (int c = 0; c < 3; c++) {
+	    double prob = PackedState.drawProb(s, c);
+	    if (prob <= 0.0)
+		continue;
+	    rest -= prob;
+	    double v = value_roll(PackedState.draw(s, c), depth,
+				  Eval.child_alpha(alpha, sum, prob, rest),
+				  Eval.child_beta(beta, sum, prob, rest));
+	    sum += prob * v;
+	    double upper = sum + (rest * State.win_payoff);
+	    if (upper <= alpha)
+		return (upper);
+	    double lower = sum - (rest * State.win_payoff);
+	    if (lower >= beta)
+		return (lower);
+	}
+	return (sum);
+    }
+
+    double value_stop (long s, int depth, double alpha, double beta) {
+	s = PackedState.endTurn(s);
+	if (PackedState.terminal(s))
+	    return (PackedState.payoff(s));
+	return (value(PackedState.nextPlayer(s), depth + 1, alpha, beta));
+    }
+
+    double value_choose (long s, int depth, double alpha, double beta) {
+	double eu_roll = value(PackedState.withChoice(s, Choice.roll), depth,
+			       alpha, beta);
+	if (PackedState.brainsCollected(s) == 0)
+	    return (eu_roll);
+	long stop = PackedState.withChoice(s, Choice.stop);
+	if (PackedState.currentPlayer(s) == Turn.computer) {
+	    if (eu_roll >= beta)
+		return (eu_roll);
+	    return (Math.max(eu_roll, value(stop, depth,
+					    Math.max(alpha, eu_roll), beta)));
+	} else {
+	    if (eu_roll <= alpha)
+		return (eu_roll);
+	    return (Math.min(eu_roll, value(stop, depth, alpha,
+					    Math.min(beta, eu_roll))));
+	}
+    }
+
+    // main -- Check this search against "Eval" from the command line ...
+    public static void main (String[] args) {
+	if (args.length < 3) {
+	    System.err.println("Usage:  java PackedSearch <states> <depth> "
+			       + "<seed> [heuristic]");
+	    System.exit(1);
+	}
+	int states = Integer.parseInt(args[0]);
+	int depth = Integer.parseInt(args[1]);
+	SplittableRandom rng = new SplittableRandom(Long.parseLong(args[2]));
+	Heuristic h = Heuristic.named((args.length > 3) ? args[3] : "step");
+	if (h == null) {
+	    System.err.println("PackedSearch:  unknown heuristic");
+	    System.exit(1);
+	}
+	PackedSearch search = new PackedSearch(depth, h);
+	SearchContext previous = Eval.context.get();
+	Eval.use(new SearchContext(depth, h));
+	double worst = 0.0;
+	int differ = 0;
+	int ties = 0;
+	try {
+	    for (int i = 0; i < states; i++) {
+		State s = TableHeuristic.sample(rng);
+		long p = PackedState.fromState(s);
+		double[] eu = new double[2];
+		int k = 0;
+		for (Choice c : new Choice[] { Choice.roll, Choice.stop }) {
+		    State cs = new State(s);
+		    cs.current_choice = c;
+		    eu[k] = Eval.value(cs);
+		    double diff = Math.abs(eu[k++]
+			- search.value(PackedState.withChoice(p, c)));
+		    worst = Math.max(worst, diff);
+		}
+		// Decisions between actions whose values differ only by
+		// rounding may go either way ...
+		if (Eval.choose(s) != search.choose(p)) {
+		    if (Math.abs(eu[0] - eu[1]) > 1e-9)
+			differ++;
+		    else
+			ties++;
+		}
+	    }
+	} finally {
+	    Eval.use(previous);
+	}
+	System.out.printf("%d states at depth %d:  largest difference %g, "
+			  + "%d different decisions, %d broken ties%n",
+			  states, depth, worst, differ, ties);
+	if ((worst > 1e-9) || (differ > 0))
+	    System.exit(1);
+    }
+
+}
@@ -0,0 +1,381 @@
+//
+// PackedState
+//
+// This class encodes a complete Zombie Dice game state in the low 51 bits
+// of a single "long", and it provides static functions that carry out
+// the operations of "State" (drawing, replacing, rolling, collecting the
+// hand, ending the turn, and so on) with bitwise arithmetic, returning
+// the resulting state rather than modifying anything.  Copying a packed
+// state is free, two states are equal exactly when their codes are equal,
+// and a state fits in a hash table entry of eight bytes.
+//
+// The fields, from the least significant bit, are:
+//
+//     bits  0-7   dice of each color in the cup (3, 3, and 2 bits)
+//     bits  8-15  brain dice of each color set aside (3, 3, and 2 bits)
+//     bits 16-27  the hand:  four bits for each of three slots, holding
+//                 the die color (0 for an empty slot, otherwise the color
+//                 ordinal plus one) and the face showing
+//     bits 28-33  brains collected this turn (saturating at 63)
+//     bits 34-35  shotgun blasts collected this turn (saturating at 3)
+//     bits 36-47  brains eaten by the computer and by the user (6 bits
+//                 each, saturating at 63)
+//     bit  48     the current player (0 for the computer)
+//     bits 49-50  the current choice (the "Choice" ordinal)
+//
+// The cup starts with six green, four yellow, and three red dice.  The
+// faces of green dice are three brains, two feet, and one blast; those of
+// yellow dice are two of each; and those of red dice are one brain, two
+// feet, and three blasts.  Dice that are rolled as feet stay in the hand
+// to be rolled again, and empty hand slots are filled in order.
+//
+// Conversion to and from "State" reads and writes the public fields of
+// "State" ("cup", "hand", "brain_colors", "brains_collected",
+// "blasts_collected", the scores, "current_player", and
+// "current_choice"), with "cup" and "brain_colors" indexed by the
+// "DieColor" ordinal.
+//
+
+
+public class PackedState {
+
+    // Code returned by operations that cannot be carried out ...
+    static public final long none = -1L;
+
+    // Brains needed to win ...
+    static public final int goal = 13;
+
+    // Number of dice of each color in a full cup ...
+    static final int[] dice = { 6, 4, 3 };
+
+    // Sides of each color of die showing each face, out of six ...
+    static final int[][] sides = { { 3, 2, 1 }, { 2, 2, 2 }, { 1, 2, 3 } };
+
+    // Probability of each face for each color ...
+    static final double[][] face_prob = new double[3][3];
+    static {
+	for (int c = 0; c < 3; c++)
+	    for (int f = 0; f < 3; f++)
+		face_prob[c][f] = sides[c][f] / 6.0;
+    }
+
+    // Field positions and widths ...
+    static final int[] cup_shift = { 0, 3, 6 };
+    static final int[] cup_mask = { 7, 7, 3 };
+    static final int[] set_aside_shift = { 8, 11, 14 };
+    static final int hand_shift = 16;
+    static final int brains_shift = 28;
+    static final int blasts_shift = 34;
+    static final int comp_shift = 36;
+    static final int user_shift = 42;
+    static final int player_shift = 48;
+    static final int choice_shift = 49;
+
+    // Code of an empty, full cup at the start of a turn ...
+    static final long full_cup =
+	(6L << 0) | (4L << 3) | (3L << 6);
+
+    // Mask of every field that is reset at the end of a turn ...
+    static final long turn_mask = (1L << 36) - 1;
+
+    // Cached enumeration values ...
+    static final Choice[] choices = Choice.values();
+
+    // start -- Return the state at the start of a game, with the given
+    //          player to move first.
+    static public long start (Turn first) {
+	long s = full_cup;
+	if (first != Turn.computer)
+	    s |= 1L << player_shift;
+	return (s | ((long) Choice.undecided.ordinal() << choice_shift));
+    }
+
+    // Field accessors ...
+
+    static public int cup (long s, int color) {
+	return ((int) (s >>> cup_shift[color]) & cup_mask[color]);
+    }
+
+    static public int setAside (long s, int color) {
+	return ((int) (s >>> set_aside_shift[color]) & cup_mask[color]);
+    }
+
+    // slotColor -- Return the color ordinal of the die in the given hand
+    //              slot, or -1 if the slot is empty.
+    static public int slotColor (long s, int slot) {
+	return (((int) (s >>> (hand_shift + 4 * slot)) & 3) - 1);
+    }
+
+    static public int slotFace (long s, int slot) {
+	return ((int) (s >>> (hand_shift + 4 * slot + 2)) & 3);
+    }
+
+    static public int brainsCollected (long s) {
+	return ((int) (s >>> brains_shift) & 63);
+    }
+
+    static public int blastsCollected (long s) {
+	return ((int) (s >>> blasts_shift) & 3);
+    }
+
+    static public int compBrainsEaten (long s) {
+	return ((int) (s >>> comp_shift) & 63);
+    }
+
+    static public int userBrainsEaten (long s) {
+	return ((int) (s >>> user_shift) & 63);
+    }
+
+    static public Turn currentPlayer (long s) {
+	return ((((s >>> player_shift) & 1L) == 0L)
+		? Turn.computer : Turn.user);
+    }
+
+    static public Choice currentChoice (long s) {
+	return (choices[(int) (s >>> choice_shift) & 3]);
+    }
+
+    // withChoice -- Return the state with the given current choice.
+    static public long withChoice (long s, Choice c) {
+	return ((s & ~(3L << choice_shift))
+		| ((long) c.ordinal() << choice_shift));
+    }
+
+    // withScores -- Return the state with the given brains eaten.
+    static public long withScores (long s, int comp, int user) {
+	s &= ~((63L << comp_shift) | (63L << user_shift));
+	return (s | ((long) Math.min(comp, 63) << comp_shift)
+		| ((long) Math.min(user, 63) << user_shift));
+    }
+
+    // numDiceInHand -- Return the number of occupied hand slots.
+    static public int numDiceInHand (long s) {
+	int n = 0;
+	for (int i = 0; i < State.hand_size; i++)
+	    if (((s >>> (hand_shift + 4 * i)) & 3L) != 0L)
+		n++;
+	return (n);
+    }
+
+    static public int cupSize (long s) {
+	return (cup(s, 0) + cup(s, 1) + cup(s, 2));
+    }
+
+    static public boolean cupIsEmpty (long s) {
+	return ((s & 0xffL) == 0L);
+    }
+
+    // drawProb -- Return the probability of drawing a die of the given
+    //             color from the cup.
+    static public double drawProb (long s, int color) {
+	int total = cupSize(s);
+	return ((total == 0) ? 0.0 : (double) cup(s, color) / total);
+    }
+
+    // draw -- Return the state after a die of the given color is taken
+    //         from the cup and placed in the first empty hand slot, or
+    //         "none" if there is no such die or no empty slot.
+    static public long draw (long s, int color) {
+	if (cup(s, color) == 0)
+	    return (none);
+	for (int i = 0; i < State.hand_size; i++) {
+	    int shift = hand_shift + 4 * i;
+	    if (((s >>> shift) & 3L) == 0L) {
+		s -= 1L << cup_shift[color];
+		s &= ~(15L << shift);
+		s |= ((long) (color + 1) | ((long) DieFace.invalid.ordinal()
+					    << 2)) << shift;
+		return (s);
+	    }
+	}
+	return (none);
+    }
+
+    // replace -- Return the state after the die in the given hand slot is
+    //            put back in the cup.
+    static public long replace (long s, int slot) {
+	int color = slotColor(s, slot);
+	if (color < 0)
+	    return (s);
+	s &= ~(15L << (hand_shift + 4 * slot));
+	return (s + (1L << cup_shift[color]));
+    }
+
+    // rollProb -- Return the probability that the three dice in the hand
+    //             show the given faces when rolled.
+    static public double rollProb (long s, int f1, int f2, int f3) {
+	int c1 = slotColor(s, 0);
+	int c2 = slotColor(s, 1);
+	int c3 = slotColor(s, 2);
+	if ((c1 < 0) || (c2 < 0) || (c3 < 0))
+	    return (0.0);
+	return (face_prob[c1][f1] * face_prob[c2][f2] * face_prob[c3][f3]);
+    }
+
+    // roll -- Return the state with the dice in the hand showing the
+    //         given faces.
+    static public long roll (long s, int f1, int f2, int f3) {
+	long faces = ((long) f1 << 2) | ((long) f2 << 6) | ((long) f3 << 10);
+	long mask = (3L << 2) | (3L << 6) | (3L << 10);
+	return ((s & ~(mask << hand_shift)) | (faces << hand_shift));
+    }
+
+    // collectHand -- Return the state after brain dice in the hand are
+    //                set aside and blast dice are removed, leaving only
+    //                feet dice in the hand.
+    static public long collectHand (long s) {
+	int brains = brainsCollected(s);
+	int blasts = blastsCollected(s);
+	for (int i = 0; i < State.hand_size; i++) {
+	    int color = slotColor(s, i);
+	    if (color < 0)
+		continue;
+	    int face = slotFace(s, i);
+	    if (face == DieFace.brain.ordinal()) {
+		brains++;
+		s += 1L << set_aside_shift[color];
+		s &= ~(15L << (hand_shift + 4 * i));
+	    } else if (face == DieFace.blast.ordinal()) {
+		blasts++;
+		s &= ~(15L << (hand_shift + 4 * i));
+	    }
+	}
+	s &= ~((63L << brains_shift) | (3L << blasts_shift));
+	return (s | ((long) Math.min(brains, 63) << brains_shift)
+		| ((long) Math.min(blasts, 3) << blasts_shift));
+    }
+
+    static public boolean shotgunned (long s) {
+	return (blastsCollected(s) >= 3);
+    }
+
+    // reuseBrains -- Return the state after the brain dice set aside are
+    //                put back in the cup.  The brains collected still
+    //                count toward the score.
+    static public long reuseBrains (long s) {
+	long set_aside = (s >>> 8) & 0xffL;
+	return ((s & ~(0xffL << 8)) + set_aside);
+    }
+
+    // endTurn -- Return the state after the current player banks the
+    //            brains collected, unless shotgunned, and the turn
+    //            fields are reset for a new turn.
+    static public long endTurn (long s) {
+	if (!shotgunned(s)) {
+	    int brains = brainsCollected(s);
+	    if (currentPlayer(s) == Turn.computer)
+		s = withScores(s, compBrainsEaten(s) + brains,
+			       userBrainsEaten(s));
+	    else
+		s = withScores(s, compBrainsEaten(s),
+			       userBrainsEaten(s) + brains);
+	}
+	s = (s & ~turn_mask) | full_cup;
+	return (withChoice(s, Choice.undecided));
+    }
+
+    // nextPlayer -- Return the state with the other player to move.
+    static public long nextPlayer (long s) {
+	return (withChoice(s ^ (1L << player_shift), Choice.undecided));
+    }
+
+    // terminal -- Return true if some player has reached the goal and the
+    //             scores are not tied.
+    static public boolean terminal (long s) {
+	int comp = compBrainsEaten(s);
+	int user = userBrainsEaten(s);
+	return (((comp >= goal) || (user >= goal)) && (comp != user));
+    }
+
+    // payoff -- Return the payoff of a terminal state.
+    static public double payoff (long s) {
+	return ((compBrainsEaten(s) > userBrainsEaten(s))
+		? State.win_payoff : -State.win_payoff);
+    }
+
+    // hash -- Return a well mixed hash of the given state, suitable for
+    //         indexing power of two sized tables.
+    static public long hash (long s) {
+	s ^= s >>> 33;
+	s *= 0xff51afd7ed558ccdL;
+	s ^= s >>> 33;
+	s *= 0xc4ceb9fe1a85ec53L;
+	s ^= s >>> 33;
+	return (s);
+    }
+
+    // fromState -- Return the packed code of the given state.
+    static public long fromState (State st) {
+	long s = 0L;
+	for (int c = 0; c < 3; c++) {
+	    s |= (long) (st.cup[c] & cup_mask[c]) << cup_shift[c];
+	    s |= (long) (st.brain_colors[c] & cup_mask[c])
+		<< set_aside_shift[c];
+	}
+	for (int i = 0; i < State.hand_size; i++) {
+	    Die d = st.hand[i];
+	    if ((d != null) && (d.color != DieColor.invalid)) {
+		long slot = (d.color.ordinal() + 1)
+		    | ((long) d.face.ordinal() << 2);
+		s |= slot << (hand_shift + 4 * i);
+	    }
+	}
+	s |= (long) Math.min(st.brains_collected, 63) << brains_shift;
+	s |= (long) Math.min(st.blasts_collected, 3) << blasts_shift;
+	s = withScores(s, st.comp_brains_eaten, st.user_brains_eaten);
+	if (st.current_player != Turn.computer)
+	    s |= 1L << player_shift;
+	return (withChoice(s, st.current_choice));
+    }
+
+    // toState -- Return a new "State" object equivalent to the given
+    //            packed code.
+    static public State toState (long s) {
+	State st = new State();
+	DieColor[] colors = DieColor.values();
+	DieFace[] faces = DieFace.values();
+	for (int c = 0; c < 3; c++) {
+	    st.cup[c] = cup(s, c);
+	    st.brain_colors[c] = setAside(s, c);
+	}
+	for (int i = 0; i < State.hand_size; i++) {
+	    int color = slotColor(s, i);
+	    if (color < 0) {
+		st.hand[i] = null;
+	    } else {
+		st.hand[i] = new Die(colors[color]);
+		st.hand[i].face = faces[slotFace(s, i)];
+	    }
+	}
+	st.brains_collected = brainsCollected(s);
+	st.blasts_collected = blastsCollected(s);
+	st.comp_brains_eaten = compBrainsEaten(s);
+	st.user_brains_eaten = userBrainsEaten(s);
+	st.current_player = currentPlayer(s);
+	st.current_choice = currentChoice(s);
+	return (st);
+    }
+
+    // toString -- Return a readable description of a packed state.
+    static public String toString (long s) {
+	StringBuilder b = new StringBuilder();
+	b.append("cup ").append(cup(s, 0)).append('/').append(cup(s, 1))
+	    .append('/').append(cup(s, 2)).append(" hand [");
+	for (int i = 0; i < State.hand_size; i++) {
+	    int color = slotColor(s, i);
+	    if (i > 0)
+		b.append(' ');
+	    if (color < 0)
+		b.append('-');
+	    else
+		b.append("gyr".charAt(color)).append(slotFace(s, i));
+	}
+	b.append("] brains ").append(brainsCollected(s))
+	    .append(" blasts ").append(blastsCollected(s))
+	    .append(" score ").append(compBrainsEaten(s)).append(':')
+	    .append(userBrainsEaten(s)).append(' ')
+	    .append(currentPlayer(s)).append(' ').append(currentChoice(s));
+	return (b.toString());
+    }
+
+}
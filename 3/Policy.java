@@ -0,0 +1,22 @@
+//
+// Policy
+//
+// This interface is implemented by Zombie Dice players, for use in
+// automated play such as "SelfPlay".  A policy is asked to decide
+// between rolling and stopping whenever the current player is
+// undecided.  A single policy object may be asked to decide in several
+// threads at once, so implementations must be safe for that.
+//
+
+
+public interface Policy {
+
+    // name -- Return a short description of this policy.
+    public String name ();
+
+    // choose -- Return either "Choice.roll" or "Choice.stop" for the
+    //           current player of the given undecided state.  The state
+    //           must not be modified.
+    public Choice choose (State s);
+
+}
@@ -0,0 +1,36 @@
+//
+// SearchContext
+//
+// This class holds the search configuration used by "Eval" in one
+// thread:  the depth limit, the heuristic evaluation function applied
+// at that limit, whether to use the pruned search, and an optional table
+// of remembered values.  A context is installed for the current thread
+// with "Eval.use", and it replaces the static "Eval.depth_limit",
+// "Eval.prune" and the default heuristic until it is removed.  A context
+// must not be shared between threads that are searching at the same
+// time, but a table may be shared by contexts in different threads.
+// Setting "stop" makes a search using the context return promptly, with
+// a meaningless value.
+//
+
+
+public class SearchContext {
+
+    public int depth_limit;             // depth limit for look-ahead
+    public Heuristic heuristic;         // evaluation at the depth limit
+    public TranspositionTable table;    // remembered values, or null
+    public boolean prune = Eval.prune;  // use the pruned search
+    public volatile boolean stop;       // abandon the current search
+
+    // Default constructor ...
+    public SearchContext () {
+	this(Eval.depth_limit, null);
+    }
+
+    // Constructor with the depth limit and heuristic specified ...
+    public SearchContext (int depth_limit, Heuristic heuristic) {
+	this.depth_limit = depth_limit;
+	this.heuristic = heuristic;
+    }
+
+}
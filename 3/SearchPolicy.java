@@ -0,0 +1,81 @@
+//
+// SearchPolicy
+//
+// This class is a "Policy" that decides using "Eval.choose", searching
+// to its own depth limit with its own heuristic evaluation function.
+// Each thread that uses the policy gets its own "SearchContext", so the
+// policy may be used by many threads at once, and differently configured
+// policies may play against each other.  A policy may use the pruned
+// search of "Eval", which gives the same decisions faster.  The search
+// of "PackedSearch" is used by "PackedPolicy" instead.
+//
+
+
+public class SearchPolicy implements Policy {
+
+    public int depth_limit;             // depth limit for look-ahead
+    public Heuristic heuristic;         // heuristic, or null for default
+    public String heuristic_name;       // description of the heuristic
+    public boolean prune;               // use the pruned search
+
+    // Search contexts for each thread ...
+    final ThreadLocal<SearchContext> contexts;
+
+    // Constructor ...
+    public SearchPolicy (int depth_limit, Heuristic heuristic,
+			 String heuristic_name) {
+	this.depth_limit = depth_limit;
+	this.heuristic = heuristic;
+	this.heuristic_name = heuristic_name;
+	this.contexts = ThreadLocal.withInitial(() -> context());
+    }
+
+    // context -- Return a new search context configured as this policy.
+    SearchContext context () {
+	SearchContext c = new SearchContext(depth_limit, heuristic);
+	c.prune = prune;
+	return (c);
+    }
+
+    // parse -- Return the policy described by "depth" or "depth:name",
+    //          where "name" is a heuristic known to "Heuristic.named",
+    //          either of which may be followed by ":pruned" to use the
+    //          pruned search.  Return null if the description is not
+    //          valid.
+    static public SearchPolicy parse (String spec) {
+	boolean pruned = spec.endsWith(":pruned");
+	if (pruned)
+	    spec = spec.substring(0, spec.length() - 7);
+	String[] parts = spec.split(":", 2);
+	String name = (parts.length > 1) ? parts[1] : "step";
+	Heuristic h = Heuristic.named(name);
+	if (h == null)
+	    return (null);
+	try {
+	    int depth = Integer.parseInt(parts[0]);
+	    if (depth < 0)
+		return (null);
+	    SearchPolicy p = new SearchPolicy(depth, h, name);
+	    p.prune = pruned;
+	    return (p);
+	} catch (NumberFormatException e) {
+	    return (null);
+	}
+    }
+
+    public String name () {
+	return ("depth " + depth_limit + " " + heuristic_name
+		+ (prune ? " pruned" : ""));
+    }
+
+    public Choice choose (State s) {
+	SearchContext previous = Eval.context.get();
+	Eval.use(contexts.get());
+	try {
+	    return (Eval.choose(s));
+	} finally {
+	    Eval.use(previous);
+	}
+    }
+
+}
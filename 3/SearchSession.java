@@ -0,0 +1,119 @@
+//
+// SearchSession
+//
+// This class keeps the search work done for one player over the course
+// of a game, so that each decision can reuse the work done for the ones
+// before it.  Every search run by the session remembers state values in
+// a single "TranspositionTable", keyed by the state itself, so when the
+// dice have been rolled the subtree under the actual outcome is found in
+// the table without any explicit rerooting.
+//
+// Once the player's turn is over, "ponder" searches ahead in the
+// background while the opponent plays:  it searches the start of the
+// player's next turn for each score the opponent might reach, one level
+// deeper than usual, so that the positions reached after the first roll
+// of that turn are remembered with exactly the depth that the next
+// decision will need.  The next call to "choose" stops pondering and
+// uses whatever was found.
+//
+
+
+public class SearchSession {
+
+    // Most brains the opponent is assumed to collect in one turn ...
+    static public int ponder_brains = 8;
+
+    public TranspositionTable table;    // values shared by all searches
+    public SearchContext context;       // context for decisions
+    public SearchContext ponder_context;  // context for pondering
+    Thread ponderer = null;             // background search, if any
+
+    // Constructor ...
+    public SearchSession (int depth_limit, Heuristic heuristic,
+			  int table_bits) {
+	table = new TranspositionTable(table_bits);
+	context = new SearchContext(depth_limit, heuristic);
+	context.table = table;
+	ponder_context = new SearchContext(depth_limit + 1, heuristic);
+	ponder_context.table = table;
+    }
+
+    // choose -- Stop any pondering, then return either "Choice.roll" or
+    //           "Choice.stop" for the current player of the given
+    //           undecided state.
+    public Choice choose (State s) {
+	stopPondering();
+	SearchContext previous = Eval.context.get();
+	Eval.use(context);
+	try {
+	    return (Eval.choose(s));
+	} finally {
+	    Eval.use(previous);
+	}
+    }
+
+    // ponder -- Begin searching in the background for the next turn of
+    //           the player who has just ended the turn in the given
+    //           state, with the other player now to move.
+    public synchronized void ponder (State s) {
+	stopPondering();
+	final Turn me = (s.current_player == Turn.computer)
+	    ? Turn.user : Turn.computer;
+	final long base = PackedState.fromState(s);
+	ponder_context.stop = false;
+	ponderer = new Thread(() -> {
+		Eval.use(ponder_context);
+		try {
+		    for (int k = 0; k <= ponder_brains; k++) {
+			if (ponder_context.stop)
+			    break;
+			long next = base;
+			if (me == Turn.computer)
+			    next = PackedState.withScores(next,
+				PackedState.compBrainsEaten(base),
+				PackedState.userBrainsEaten(base) + k);
+			else
+			    next = PackedState.withScores(next,
+				PackedState.compBrainsEaten(base) + k,
+				PackedState.userBrainsEaten(base));
+			next = PackedState.nextPlayer(next);
+			if (PackedState.terminal(next))
+			    continue;
+			State start = PackedState.toState(next);
+			start.current_choice = Choice.roll;
+			Eval.value(start, 0);
+		    }
+		} finally {
+		    Eval.use(null);
+		}
+	    }, "ponder");
+	ponderer.setDaemon(true);
+	ponderer.start();
+    }
+
+    // stopPondering -- Stop any background search and wait for it to
+    //                  finish.
+    public synchronized void stopPondering () {
+	if (ponderer == null)
+	    return;
+	ponder_context.stop = true;
+	try {
+	    ponderer.join();
+	} catch (InterruptedException e) {
+	    Thread.currentThread().interrupt();
+	}
+	ponderer = null;
+    }
+
+    // newGame -- Forget everything learned in the current game.
+    public void newGame () {
+	stopPondering();
+	table.clear();
+    }
+
+    // close -- Stop any background search ...
+    public void close () {
+	stopPondering();
+    }
+
+}
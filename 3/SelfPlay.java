@@ -0,0 +1,311 @@
+//
+// SelfPlay
+//
+// This class plays large numbers of Zombie Dice games between two
+// policies, spreading the games over all available processors.  Every
+// game draws its dice from its own "SplittableRandom", split from a
+// single seed in a fixed order, so a run may be reproduced exactly
+// regardless of how the games are scheduled.  The two policies take turns
+// going first.  The harness reports the score of the first policy (wins
+// plus half of any drawn games) with a 95% Wilson confidence interval,
+// and a histogram of the time taken by each policy to make each decision.
+//
+// Usage:  java SelfPlay <games> <seed> <policyA> <policyB> [threads]
+//
+// where a policy is given as "depth" or "depth:heuristic", optionally
+// followed by ":pruned" to use the pruned search of "Eval", or by
+// ":packed" to use "PackedPolicy", for example "2", "4:step",
+// "4:step:pruned" or "4:step:packed".  There is no exact solver, so a
+// deep search policy stands in for one.
+//
+
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+
+public class SelfPlay {
+
+    // Games longer than this are abandoned and counted as draws ...
+    static public int max_turns = 1000;
+
+    // Number of games given to a thread at a time ...
+    static public int chunk_size = 64;
+
+    public Policy a;                    // first policy
+    public Policy b;                    // second policy
+    public long wins;                   // games won by "a"
+    public long losses;                 // games won by "b"
+    public long draws;                  // games drawn or abandoned
+    public long decisions;              // decisions made by both
+    public long[] latency_a = new long[64];  // log2 nanosecond histogram
+    public long[] latency_b = new long[64];  // log2 nanosecond histogram
+    public long nanos;                  // wall clock time of the run
+
+    // Constructor ...
+    public SelfPlay (Policy a, Policy b) {
+	this.a = a;
+	this.b = b;
+    }
+
+    // Results of one chunk of games ...
+    static class Tally {
+	long wins, losses, draws, decisions;
+	long[] latency_a = new long[64];
+	long[] latency_b = new long[64];
+    }
+
+    // run -- Play the given number of games on the given number of
+    //        threads, with dice drawn from random number generators
+    //        split from "seed".  Results accumulate in this object.
+    //        Return false if any game failed.
+    public boolean run (long games, long seed, int threads) {
+	SplittableRandom root = new SplittableRandom(seed);
+	ExecutorService pool = Executors.newFixedThreadPool(threads);
+	List<Future<Tally>> results = new ArrayList<Future<Tally>>();
+	long start = System.nanoTime();
+	for (long first = 0; first < games; first += chunk_size) {
+	    final long from = first;
+	    final long to = Math.min(games, first + chunk_size);
+	    final SplittableRandom rng = root.split();
+	    results.add(pool.submit(() -> playChunk(from, to, rng)));
+	}
+	boolean ok = true;
+	for (Future<Tally> f : results) {
+	    try {
+		Tally t = f.get();
+		wins += t.wins;
+		losses += t.losses;
+		draws += t.draws;
+		decisions += t.decisions;
+		for (int i = 0; i < 64; i++) {
+		    latency_a[i] += t.latency_a[i];
+		    latency_b[i] += t.latency_b[i];
+		}
+	    } catch (Exception e) {
+		System.err.println("SelfPlay: " + e);
+		ok = false;
+	    }
+	}
+	pool.shutdown();
+	nanos += System.nanoTime() - start;
+	return (ok);
+    }
+
+    // playChunk -- Play games "from" up to "to", with policy "a" going
+    //              first in the even numbered games.
+    Tally playChunk (long from, long to, SplittableRandom rng) {
+	Tally t = new Tally();
+	for (long g = from; g < to; g++) {
+	    int result = play(a, b, (g % 2) == 0, rng.split(), t);
+	    if (result > 0)
+		t.wins++;
+	    else if (result < 0)
+		t.losses++;
+	    else
+		t.draws++;
+	}
+	return (t);
+    }
+
+    // play -- Play one game with policy "pa" as the computer and "pb" as
+    //         the user, and return 1 if "pa" wins, -1 if "pb" wins, and 0
+    //         if the game is abandoned.
+    static int play (Policy pa, Policy pb, boolean pa_first,
+		     SplittableRandom rng, Tally t) {
+	State s = new State();
+	s.current_player = pa_first ? Turn.computer : Turn.user;
+	s.current_choice = Choice.undecided;
+	int turns = 0;
+	while (turns < max_turns) {
+	    // Decide ...
+	    Choice choice;
+	    if (s.brains_collected == 0) {
+		choice = Choice.roll;
+	    } else {
+		boolean is_a = (s.current_player == Turn.computer);
+		long start = System.nanoTime();
+		choice = (is_a ? pa : pb).choose(s);
+		long elapsed = System.nanoTime() - start;
+		int bucket = 63 - Long.numberOfLeadingZeros(elapsed | 1L);
+		if (is_a)
+		    t.latency_a[bucket]++;
+		else
+		    t.latency_b[bucket]++;
+		t.decisions++;
+	    }
+	    if (choice == Choice.roll) {
+		s.current_choice = Choice.roll;
+		SelfPlay.rollHand(s, rng);
+		s.collectHand();
+		if (!s.shotgunned()) {
+		    s.current_choice = Choice.undecided;
+		    continue;
+		}
+	    }
+	    // The turn is over ...
+	    s.current_choice = Choice.stop;
+	    s.endTurn();
+	    if (s.terminal())
+		return ((s.payoff() > 0.0) ? 1 : -1);
+	    s.nextPlayer();
+	    s.current_choice = Choice.undecided;
+	    turns++;
+	}
+	return (0);
+    }
+
+    // rollHand -- Fill the hand of the current player with randomly drawn
+    //             dice and then roll them, at random.
+    static void rollHand (State s, SplittableRandom rng) {
+	while (s.numDiceInHand() < State.hand_size) {
+	    if (s.cupIsEmpty()) {
+		s.reuseBrains();
+		if (s.cupIsEmpty())
+		    return;
+	    }
+	    double r = rng.nextDouble();
+	    DieColor last = null;
+	    for (DieColor c : DieColor.values()) {
+		if (c == DieColor.invalid)
+		    continue;
+		double p = s.drawProb(c);
+		if (p <= 0.0)
+		    continue;
+		last = c;
+		r -= p;
+		if (r < 0.0)
+		    break;
+	    }
+	    if (s.draw(last) == null)
+		return;
+	}
+	double r = rng.nextDouble();
+	DieFace[] faces = null;
+	for (DieFace d1 : DieFace.values()) {
+	    for (DieFace d2 : DieFace.values()) {
+		for (DieFace d3 : DieFace.values()) {
+		    if ((d1 == DieFace.invalid) || (d2 == DieFace.invalid)
+			|| (d3 == DieFace.invalid))
+			continue;
+		    double p = s.rollProb(d1, d2, d3);
+		    if (p <= 0.0)
+			continue;
+		    faces = new DieFace[] { d1, d2, d3 };
+		    r -= p;
+		    if (r < 0.0) {
+			s.roll(d1, d2, d3);
+			return;
+		    }
+		}
+	    }
+	}
+	// Rounding left a little probability unclaimed ...
+	s.roll(faces[0], faces[1], faces[2]);
+    }
+
+    // score -- Return the fraction of games won by policy "a", counting
+    //          drawn games as half of a win.
+    public double score () {
+	long n = wins + losses + draws;
+	return ((n == 0) ? 0.0 : (wins + 0.5 * draws) / n);
+    }
+
+    // interval -- Return the lower and upper limits of the 95% Wilson
+    //             score interval for "score".
+    public double[] interval () {
+	double n = wins + losses + draws;
+	if (n == 0)
+	    return (new double[] { 0.0, 1.0 });
+	double z = 1.959964;
+	double p = score();
+	double denom = 1.0 + z * z / n;
+	double centre = (p + z * z / (2.0 * n)) / denom;
+	double half = z * Math.sqrt(p * (1.0 - p) / n
+				    + z * z / (4.0 * n * n)) / denom;
+	return (new double[] { Math.max(0.0, centre - half),
+			       Math.min(1.0, centre + half) });
+    }
+
+    // percentile -- Return the upper limit, in nanoseconds, of the
+    //               histogram bucket holding the given fraction of the
+    //               recorded latencies.
+    static long percentile (long[] hist, double fraction) {
+	long total = 0;
+	for (long h : hist)
+	    total += h;
+	long want = (long) Math.ceil(fraction * total);
+	long seen = 0;
+	for (int i = 0; i < hist.length; i++) {
+	    seen += hist[i];
+	    if ((seen >= want) && (seen > 0))
+		return (2L << i);
+	}
+	return (0L);
+    }
+
+    // printLatency -- Report a latency histogram ...
+    static void printLatency (String name, long[] hist) {
+	System.out.printf("%s decision latency:  p50 < %d ns, "
+			  + "p90 < %d ns, p99 < %d ns%n", name,
+			  percentile(hist, 0.5), percentile(hist, 0.9),
+			  percentile(hist, 0.99));
+	for (int i = 0; i < hist.length; i++) {
+	    if (hist[i] > 0)
+		System.out.printf("    [%12d, %12d) ns  %d%n",
+				  1L << i, 2L << i, hist[i]);
+	}
+    }
+
+    // report -- Print the results of the games played so far.
+    public void report () {
+	long n = wins + losses + draws;
+	double[] ci = interval();
+	System.out.printf("%s vs. %s:  %d games in %.1f s "
+			  + "(%.0f games/s, %d decisions)%n",
+			  a.name(), b.name(), n, nanos / 1e9,
+			  n / (nanos / 1e9), decisions);
+	System.out.printf("  wins %d, losses %d, draws %d%n",
+			  wins, losses, draws);
+	System.out.printf("  score %.4f, 95%% interval [%.4f, %.4f]%n",
+			  score(), ci[0], ci[1]);
+	printLatency("  " + a.name(), latency_a);
+	printLatency("  " + b.name(), latency_b);
+    }
+
+    // policy -- Return the policy with the given description, or null if
+    //           the description is not valid.
+    static Policy policy (String spec) {
+	if (spec.endsWith(":packed"))
+	    return (PackedPolicy.parse(spec.substring(0, spec.length() - 7)));
+	return (SearchPolicy.parse(spec));
+    }
+
+    // main -- Run self-play from the command line ...
+    public static void main (String[] args) {
+	if (args.length < 4) {
+	    System.err.println("Usage:  java SelfPlay <games> <seed> "
+			       + "<policyA> <policyB> [threads]");
+	    System.exit(1);
+	}
+	long games = Long.parseLong(args[0]);
+	long seed = Long.parseLong(args[1]);
+	Policy pa = policy(args[2]);
+	Policy pb = policy(args[3]);
+	if ((pa == null) || (pb == null)) {
+	    System.err.println("SelfPlay:  bad policy description");
+	    System.exit(1);
+	}
+	int threads = (args.length > 4) ? Integer.parseInt(args[4])
+	    : Runtime.getRuntime().availableProcessors();
+	SelfPlay play = new SelfPlay(pa, pb);
+	if (!play.run(games, seed, threads))
+	    System.exit(1);
+	play.report();
+    }
+
+}
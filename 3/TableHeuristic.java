@@ -0,0 +1,259 @@
+//
+// TableHeuristic
+//
+// This class is a "Heuristic" that looks up the value of a state in a
+// table indexed by the brains eaten by each player, the current player,
+// and the brains and shotgun blasts collected so far in the current
+// turn.  The table is fit to the values found by deeper look-ahead
+// search on sampled states:  the least squares fit of such a table is
+// simply the mean search value of the states that fall in each cell,
+// shrunk toward the default heuristic when a cell has few samples.
+// Fitting may be repeated, using the previous table at the depth limit
+// of the search, so that each round of fitting sees further ahead.
+//
+// Evaluation is a single array access, costing a few nanoseconds, so the
+// table may be used at the depth limit of a shallow search in place of
+// the much coarser default heuristic.  Tables are saved as a small binary
+// file which may be named in a policy description as "table=<file>".
+//
+// Usage:  java TableHeuristic <samples> <depth> <rounds> <seed> <file>
+//
+
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.SplittableRandom;
+import java.util.stream.IntStream;
+
+
+public class TableHeuristic implements PackedHeuristic {
+
+    // Table dimensions ...
+    static final int scores = 16;       // brains eaten, clamped
+    static final int players = 2;       // current player
+    static final int collected = 8;     // brains this turn, clamped
+    static final int blasts = 3;        // blasts this turn
+    static final int size = scores * scores * players * collected * blasts;
+
+    // File format identification ...
+    static final int magic = 0x5a445448;  // "ZDTH"
+    static final int version = 1;
+
+    // Brains needed to win, as assumed by the default heuristic ...
+    static public int goal = 13;
+
+    // Weight of the default heuristic, in samples, for each cell ...
+    static public double prior_weight = 1.0;
+
+    // Consumes the values computed by "cost" ...
+    static volatile double sink;
+
+    public double[] table = new double[size];  // value of each cell
+
+    // index -- Return the table cell of the given state.
+    static int index (State s) {
+	return (index(s.comp_brains_eaten, s.user_brains_eaten,
+		      (s.current_player == Turn.computer) ? 0 : 1,
+		      s.brains_collected, s.blasts_collected));
+    }
+
+    // index -- Return the table cell of a packed state (see
+    //          "PackedState").
+    static int index (long s) {
+	return (index(PackedState.compBrainsEaten(s),
+		      PackedState.userBrainsEaten(s),
+		      (int) (s >>> PackedState.player_shift) & 1,
+		      PackedState.brainsCollected(s),
+		      PackedState.blastsCollected(s)));
+    }
+
+    static int index (int comp, int user, int player, int brains,
+		      int shots) {
+	comp = Math.min(Math.max(comp, 0), scores - 1);
+	user = Math.min(Math.max(user, 0), scores - 1);
+	brains = Math.min(Math.max(brains, 0), collected - 1);
+	shots = Math.min(Math.max(shots, 0), blasts - 1);
+	return ((((((comp * scores) + user) * players + player)
+		  * collected) + brains) * blasts + shots);
+    }
+
+    public double value (State s) {
+	return (table[index(s)]);
+    }
+
+    // value -- Return the heuristic evaluation value of a packed state,
+    //          without making a "State".
+    public double value (long s) {
+	return (table[index(s)]);
+    }
+
+    // sample -- Return a randomly chosen undecided state, with random
+    //           scores, partway through a turn of random length.
+    static State sample (SplittableRandom rng) {
+	while (true) {
+	    State s = new State();
+	    s.comp_brains_eaten = rng.nextInt(goal);
+	    s.user_brains_eaten = rng.nextInt(goal);
+	    s.current_player = rng.nextBoolean() ? Turn.computer : Turn.user;
+	    s.current_choice = Choice.undecided;
+	    int rolls = rng.nextInt(4);
+	    boolean shot = false;
+	    for (int r = 0; (r < rolls) && !shot; r++) {
+		s.current_choice = Choice.roll;
+		SelfPlay.rollHand(s, rng);
+		s.collectHand();
+		shot = s.shotgunned();
+		s.current_choice = Choice.undecided;
+	    }
+	    if (!shot)
+		return (s);
+	}
+    }
+
+    // fit -- Fit a table to the values of "samples" sampled states, found
+    //        by search to the given depth using "h" at the depth limit.
+    //        Sample values are computed in parallel.  Return the root
+    //        mean squared error of the fit.
+    public double fit (int samples, int depth, Heuristic h, long seed) {
+	SplittableRandom rng = new SplittableRandom(seed);
+	State[] states = new State[samples];
+	for (int i = 0; i < samples; i++)
+	    states[i] = sample(rng);
+	SearchPolicy search = new SearchPolicy(depth, h, "fit");
+	double[] values = new double[samples];
+	IntStream.range(0, samples).parallel().forEach(i -> {
+		SearchContext previous = Eval.context.get();
+		Eval.use(search.contexts.get());
+		try {
+		    values[i] = Eval.value(new State(states[i]));
+		} finally {
+		    Eval.use(previous);
+		}
+	    });
+	// Start each cell with the default heuristic as a prior ...
+	double[] sum = new double[size];
+	double[] count = new double[size];
+	for (int i = 0; i < size; i++) {
+	    sum[i] = prior_weight * Eval.step_heuristic(representative(i));
+	    count[i] = prior_weight;
+	}
+	for (int i = 0; i < samples; i++) {
+	    int k = index(states[i]);
+	    sum[k] += values[i];
+	    count[k] += 1.0;
+	}
+	for (int i = 0; i < size; i++)
+	    table[i] = sum[i] / count[i];
+	double error = 0.0;
+	for (int i = 0; i < samples; i++) {
+	    double e = values[i] - value(states[i]);
+	    error += e * e;
+	}
+	return (Math.sqrt(error / Math.max(samples, 1)));
+    }
+
+    // representative -- Return a state that falls in the given cell.
+    static State representative (int i) {
+	State s = new State();
+	s.blasts_collected = i % blasts;
+	i /= blasts;
+	s.brains_collected = i % collected;
+	i /= collected;
+	s.current_player = ((i % players) == 0) ? Turn.computer : Turn.user;
+	i /= players;
+	s.user_brains_eaten = i % scores;
+	s.comp_brains_eaten = i / scores;
+	return (s);
+    }
+
+    // save -- Write this table to the named file, returning false on
+    //         error.
+    public boolean save (String file) {
+	try (DataOutputStream out = new DataOutputStream(
+		 new BufferedOutputStream(new FileOutputStream(file)))) {
+	    out.writeInt(magic);
+	    out.writeInt(version);
+	    out.writeInt(size);
+	    for (double v : table)
+		out.writeDouble(v);
+	    return (true);
+	} catch (IOException e) {
+	    return (false);
+	}
+    }
+
+    // load -- Read a table from the named file, returning null on error.
+    static public TableHeuristic load (String file) {
+	try (DataInputStream in = new DataInputStream(
+		 new BufferedInputStream(new FileInputStream(file)))) {
+	    if ((in.readInt() != magic) || (in.readInt() != version)
+		|| (in.readInt() != size))
+		return (null);
+	    TableHeuristic h = new TableHeuristic();
+	    for (int i = 0; i < size; i++)
+		h.table[i] = in.readDouble();
+	    return (h);
+	} catch (IOException e) {
+	    return (null);
+	}
+    }
+
+    // cost -- Return the mean time, in nanoseconds, of one evaluation of
+    //         the given heuristic over the given states.
+    static double cost (Heuristic h, State[] states, int repeats) {
+	double sum = 0.0;
+	long start = System.nanoTime();
+	for (int r = 0; r < repeats; r++)
+	    for (State s : states)
+		sum += h.value(s);
+	long elapsed = System.nanoTime() - start;
+	sink = sum;
+	return ((double) elapsed / ((double) repeats * states.length));
+    }
+
+    // main -- Fit a table from the command line ...
+    public static void main (String[] args) {
+	if (args.length < 5) {
+	    System.err.println("Usage:  java TableHeuristic <samples> "
+			       + "<depth> <rounds> <seed> <file>");
+	    System.exit(1);
+	}
+	int samples = Integer.parseInt(args[0]);
+	int depth = Integer.parseInt(args[1]);
+	int rounds = Integer.parseInt(args[2]);
+	long seed = Long.parseLong(args[3]);
+	Heuristic h = Heuristic.step;
+	TableHeuristic t = null;
+	for (int r = 0; r < rounds; r++) {
+	    t = new TableHeuristic();
+	    long start = System.nanoTime();
+	    double rmse = t.fit(samples, depth, h, seed + r);
+	    System.out.printf("round %d:  rms error %.3f, %.1f s%n", r,
+			      rmse, (System.nanoTime() - start) / 1e9);
+	    h = t;
+	}
+	if (t == null)
+	    System.exit(1);
+	SplittableRandom rng = new SplittableRandom(seed);
+	State[] probe = new State[1024];
+	for (int i = 0; i < probe.length; i++)
+	    probe[i] = sample(rng);
+	// Time each heuristic once, discarding the result, so that it has
+	// been compiled before it is timed ...
+	cost(t, probe, 1000);
+	cost(Heuristic.step, probe, 1000);
+	System.out.printf("cost:  table %.1f ns/call, step %.1f ns/call%n",
+			  cost(t, probe, 1000),
+			  cost(Heuristic.step, probe, 1000));
+	if (!t.save(args[4])) {
+	    System.err.println("TableHeuristic:  cannot write " + args[4]);
+	    System.exit(1);
+	}
+    }
+
+}
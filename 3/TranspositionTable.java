@@ -0,0 +1,70 @@
+//
+// TranspositionTable
+//
+// This class remembers the values of Zombie Dice states found by search,
+// keyed by the packed code of the state (see "PackedState") and the depth
+// of search remaining below it.  The table has a fixed power of two
+// number of entries, and each new value replaces whatever was stored in
+// its entry.  The table may be read and written by several threads at
+// once without locking:  each entry stores its key XORed with its value,
+// so an entry that is torn by a concurrent write fails to match its key
+// and reads as a miss.
+//
+
+
+public class TranspositionTable {
+
+    final long[] keys;                  // key XOR value bits
+    final long[] values;                // value bits
+    final int mask;                     // entries minus one
+
+    public long probes;                 // lookups, approximately
+    public long hits;                   // lookups that found a value
+
+    // Constructor -- Make a table of "1 << bits" entries ...
+    public TranspositionTable (int bits) {
+	keys = new long[1 << bits];
+	values = new long[1 << bits];
+	mask = (1 << bits) - 1;
+    }
+
+    // key -- Return the key of a packed state with the given depth of
+    //        search remaining.  The key is never zero, which marks an
+    //        empty entry.
+    static public long key (long packed, int remaining) {
+	return (packed | ((long) (remaining + 1) << 51));
+    }
+
+    // get -- Return the value stored with the given key, or NaN if there
+    //        is none.
+    public double get (long key) {
+	int i = (int) PackedState.hash(key) & mask;
+	long bits = values[i];
+	probes++;
+	if ((keys[i] ^ bits) != key)
+	    return (Double.NaN);
+	hits++;
+	return (Double.longBitsToDouble(bits));
+    }
+
+    // put -- Store a value with the given key.
+    public void put (long key, double value) {
+	int i = (int) PackedState.hash(key) & mask;
+	long bits = Double.doubleToRawLongBits(value);
+	values[i] = bits;
+	keys[i] = key ^ bits;
+    }
+
+    // clear -- Forget every stored value.
+    public void clear () {
+	java.util.Arrays.fill(keys, 0L);
+	java.util.Arrays.fill(values, 0L);
+	probes = 0;
+	hits = 0;
+    }
+
+    public int size () {
+	return (mask + 1);
+    }
+
+}
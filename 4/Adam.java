@@ -0,0 +1,69 @@
+//
+// Adam
+//
+// This class implements the Adam optimization method, which scales the
+// step for each parameter by running estimates of the first and second
+// moments of its deltas, with bias correction for the early steps.  Weight
+// decay is either added to the deltas, as L2 regularization, or, for
+// AdamW, applied directly to the parameters ("decoupled"), so that it is
+// not rescaled by the moment estimates.  Both moment estimates are kept in
+// preallocated arrays.
+//
+
+
+public class Adam extends Optimizer {
+
+    public double beta1;                  // first moment decay rate
+    public double beta2;                  // second moment decay rate
+    public double epsilon;                // denominator stabilizer
+    public boolean decoupled;             // AdamW style weight decay
+    private double[] m;                   // first moment estimates
+    private double[] v;                   // second moment estimates
+
+    // Constructor with the learning rate specified ...
+    public Adam(double learningRate) {
+	this(learningRate, 0.9, 0.999, 1.0e-8, 0.0, false);
+    }
+
+    // Constructor with every setting specified ...
+    public Adam(double learningRate, double beta1, double beta2,
+		double epsilon, double weightDecay, boolean decoupled) {
+	super(learningRate, weightDecay);
+	this.beta1 = beta1;
+	this.beta2 = beta2;
+	this.epsilon = epsilon;
+	this.decoupled = decoupled;
+    }
+
+    // adamW -- Return an AdamW optimizer with the usual moment settings and
+    // the given learning rate and decoupled weight decay.
+    static public Adam adamW(double learningRate, double weightDecay) {
+	return (new Adam(learningRate, 0.9, 0.999, 1.0e-8, weightDecay, true));
+    }
+
+    protected void allocate(int size) {
+	m = new double[size];
+	v = new double[size];
+    }
+
+    protected void apply(double[] params, double[] deltas) {
+	double b1 = beta1;
+	double b2 = beta2;
+	double c1 = 1.0 / (1.0 - Math.pow(b1, steps));
+	double c2 = 1.0 / (1.0 - Math.pow(b2, steps));
+	double lr = learningRate;
+	double l2 = decoupled ? 0.0 : weightDecay;
+	double shrink = decoupled ? (1.0 - (lr * weightDecay)) : 1.0;
+	for (int i = 0; i < size; i++) {
+	    double d = deltas[i] - (l2 * params[i]);
+	    double mi = (b1 * m[i]) + ((1.0 - b1) * d);
+	    double vi = (b2 * v[i]) + ((1.0 - b2) * d * d);
+	    m[i] = mi;
+	    v[i] = vi;
+	    params[i] = (shrink * params[i])
+		+ (lr * (mi * c1) / (Math.sqrt(vi * c2) + epsilon));
+	}
+    }
+
+
+}
@@ -0,0 +1,245 @@
+//
+// Checkpoint
+//
+// This class implements a binary file format for saving and restoring a
+// network of "Layer" and "Projection" objects.  All values are stored
+// little-endian, and all arrays of doubles are aligned to eight bytes,
+// so that the file can be memory-mapped and its parameters read in place.
+// Opening a checkpoint maps the file read-only with "FileChannel.map",
+// which costs little regardless of the size of the file, and pages of
+// the mapping may be shared by every process that opens the same file.
+// Parameters are only copied when "toLayers" builds ordinary "Layer"
+// objects from the mapping.  A single mapping is limited to 2 GB.
+//
+// The layout of a version 1 checkpoint file is:
+//
+//   header:      int magic ("LNET"), int version,
+//                int layer count, int projection count
+//   layers:      for each layer:  int n, int unused, double min,
+//                double max, long byte offset of the bias weights
+//   projections: for each projection:  int sending layer,
+//                int receiving layer, int inputN, int outputN,
+//                long byte offset of the weights
+//   data:        bias weight arrays, then weight matrices in row-major
+//                order, all as doubles
+//
+// Layers are numbered by their position in the array given to "save",
+// which should be the order in which their activations are computed.
+//
+
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.*;
+
+
+public class Checkpoint {
+
+    static public final int magic = 0x54454E4C;   // "LNET", little-endian
+    static public final int version = 1;
+    static final int headerSize = 16;
+    static final int layerSize = 32;
+    static final int projectionSize = 24;
+
+    public int layers;                    // number of layers
+    public int projections;               // number of projections
+    public int[] n;                       // size of each layer
+    public double[] min;                  // minimum activation of each layer
+    public double[] max;                  // maximum activation of each layer
+    public int[] from;                    // sending layer of each projection
+    public int[] to;                      // receiving layer of each projection
+    public int[] inputN;                  // columns of each weight matrix
+    public int[] outputN;                 // rows of each weight matrix
+    private long[] biasOffset;            // file offsets of bias weights
+    private long[] weightOffset;          // file offsets of weights
+    private ByteBuffer data;              // read-only mapping of the file
+
+    // Constructor, used by "open" ...
+    private Checkpoint() {
+    }
+
+    // save -- Write the given network to the named file.  Only projections
+    // between layers in the given array are saved.  Return false on error.
+    static public boolean save(Layer[] net, String filename) {
+	// Collect the projections ...
+	List<Projection> projs = new ArrayList<Projection>();
+	List<int[]> wiring = new ArrayList<int[]>();
+	for (int l = 0; l < net.length; l++) {
+	    if (net[l].n <= 0)
+		return (false);
+	    for (Projection p : net[l].inputs) {
+		int s = InferenceNet.indexOf(net, p.input);
+		if (s >= 0) {
+		    projs.add(p);
+		    wiring.add(new int[] { s, l });
+		}
+	    }
+	}
+	// Lay out the file ...
+	long offset = headerSize + ((long) layerSize * net.length)
+	    + ((long) projectionSize * projs.size());
+	long[] biasAt = new long[net.length];
+	for (int l = 0; l < net.length; l++) {
+	    biasAt[l] = offset;
+	    offset += 8L * net[l].n;
+	}
+	long[] weightAt = new long[projs.size()];
+	for (int k = 0; k < projs.size(); k++) {
+	    weightAt[k] = offset;
+	    offset += 8L * projs.get(k).inputN * projs.get(k).outputN;
+	}
+	if (offset > Integer.MAX_VALUE)
+	    return (false);
+	// Write the file through a mapping ...
+	Path path = Paths.get(filename);
+	try (FileChannel ch = FileChannel.open(path,
+					       StandardOpenOption.CREATE,
+					       StandardOpenOption.TRUNCATE_EXISTING,
+					       StandardOpenOption.READ,
+					       StandardOpenOption.WRITE)) {
+	    MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_WRITE,
+					  0, offset);
+	    buf.order(ByteOrder.LITTLE_ENDIAN);
+	    buf.putInt(magic).putInt(version);
+	    buf.putInt(net.length).putInt(projs.size());
+	    for (int l = 0; l < net.length; l++) {
+		buf.putInt(net[l].n).putInt(0);
+		buf.putDouble(net[l].min).putDouble(net[l].max);
+		buf.putLong(biasAt[l]);
+	    }
+	    for (int k = 0; k < projs.size(); k++) {
+		Projection p = projs.get(k);
+		buf.putInt(wiring.get(k)[0]).putInt(wiring.get(k)[1]);
+		buf.putInt(p.inputN).putInt(p.outputN);
+		buf.putLong(weightAt[k]);
+	    }
+	    for (int l = 0; l < net.length; l++) {
+		for (int i = 0; i < net[l].n; i++)
+		    buf.putDouble(net[l].bias.get(i));
+	    }
+	    for (Projection p : projs) {
+		for (int i = 0; i < p.outputN; i++)
+		    for (int j = 0; j < p.inputN; j++)
+			buf.putDouble(p.W.get(i, j));
+	    }
+	    buf.force();
+	    return (true);
+	} catch (IOException e) {
+	    return (false);
+	}
+    }
+
+    // open -- Map the named checkpoint file read-only and read its
+    // topology.  Return null on error, or if any layer has no units or an
+    // empty activation range, since such a layer cannot be rebuilt.
+    static public Checkpoint open(String filename) {
+	try (FileChannel ch = FileChannel.open(Paths.get(filename),
+					       StandardOpenOption.READ)) {
+	    if (ch.size() < headerSize || ch.size() > Integer.MAX_VALUE)
+		return (null);
+	    ByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY,
+				    0, ch.size());
+	    buf.order(ByteOrder.LITTLE_ENDIAN);
+	    if ((buf.getInt(0) != magic) || (buf.getInt(4) != version))
+		return (null);
+	    Checkpoint c = new Checkpoint();
+	    c.data = buf;
+	    c.layers = buf.getInt(8);
+	    c.projections = buf.getInt(12);
+	    if ((c.layers < 0) || (c.projections < 0)
+		|| (headerSize + ((long) layerSize * c.layers)
+		    + ((long) projectionSize * c.projections) > ch.size()))
+		return (null);
+	    c.n = new int[c.layers];
+	    c.min = new double[c.layers];
+	    c.max = new double[c.layers];
+	    c.biasOffset = new long[c.layers];
+	    int at = headerSize;
+	    for (int l = 0; l < c.layers; l++, at += layerSize) {
+		c.n[l] = buf.getInt(at);
+		c.min[l] = buf.getDouble(at + 8);
+		c.max[l] = buf.getDouble(at + 16);
+		c.biasOffset[l] = buf.getLong(at + 24);
+		if ((c.n[l] < 1) || !(c.min[l] < c.max[l])
+		    || !c.inFile(c.biasOffset[l], c.n[l]))
+		    return (null);
+	    }
+	    c.from = new int[c.projections];
+	    c.to = new int[c.projections];
+	    c.inputN = new int[c.projections];
+	    c.outputN = new int[c.projections];
+	    c.weightOffset = new long[c.projections];
+	    for (int k = 0; k < c.projections; k++, at += projectionSize) {
+		c.from[k] = buf.getInt(at);
+		c.to[k] = buf.getInt(at + 4);
+		c.inputN[k] = buf.getInt(at + 8);
+		c.outputN[k] = buf.getInt(at + 12);
+		c.weightOffset[k] = buf.getLong(at + 16);
+		if ((c.from[k] < 0) || (c.from[k] >= c.layers)
+		    || (c.to[k] < 0) || (c.to[k] >= c.layers)
+		    || (c.inputN[k] != c.n[c.from[k]])
+		    || (c.outputN[k] != c.n[c.to[k]])
+		    || !c.inFile(c.weightOffset[k],
+				 (long) c.inputN[k] * c.outputN[k]))
+		    return (null);
+	    }
+	    return (c);
+	} catch (IOException e) {
+	    return (null);
+	}
+    }
+
+    // inFile -- Return true if an array of the given number of doubles,
+    // starting at the given offset, lies within the mapped file.
+    private boolean inFile(long offset, long count) {
+	return ((offset >= 0) && (count >= 0)
+		&& (offset + (8L * count) <= data.capacity()));
+    }
+
+    // bias -- Return a read-only view of the bias weights of the given
+    // layer, directly over the mapped file.
+    public DoubleBuffer bias(int l) {
+	return (view(biasOffset[l], n[l]));
+    }
+
+    // weights -- Return a read-only view of the weights of the given
+    // projection, in row-major order, directly over the mapped file.
+    public DoubleBuffer weights(int k) {
+	return (view(weightOffset[k], (long) inputN[k] * outputN[k]));
+    }
+
+    // view -- Return a read-only view of the given number of doubles at the
+    // given offset in the mapped file.
+    private DoubleBuffer view(long offset, long count) {
+	ByteBuffer b = data.duplicate();
+	b.position((int) offset);
+	b.limit((int) (offset + (8L * count)));
+	return (b.slice().order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer());
+    }
+
+    // toLayers -- Build a network of "Layer" and "Projection" objects
+    // holding a copy of the parameters in this checkpoint.
+    public Layer[] toLayers() {
+	Layer[] net = new Layer[layers];
+	for (int l = 0; l < layers; l++) {
+	    net[l] = new Layer(n[l], min[l], max[l]);
+	    DoubleBuffer b = bias(l);
+	    for (int i = 0; i < n[l]; i++)
+		net[l].bias.set(i, b.get(i));
+	}
+	for (int k = 0; k < projections; k++) {
+	    Projection p = new Projection(inputN[k], outputN[k]);
+	    DoubleBuffer w = weights(k);
+	    for (int i = 0; i < outputN[k]; i++)
+		for (int j = 0; j < inputN[k]; j++)
+		    p.W.set(i, j, w.get(i * inputN[k] + j));
+	    net[from[k]].addOutputProjection(p);
+	    net[to[k]].addInputProjection(p);
+	}
+	return (net);
+    }
+
+
+}
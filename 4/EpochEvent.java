@@ -0,0 +1,36 @@
+//
+// EpochEvent
+//
+// This class defines the Java Flight Recorder event emitted at the end of
+// each training epoch run by "PatternStream.train".  Like "LayerEvent",
+// it is disabled by default, since the loss it reports is only computed
+// while training is being observed.
+//
+
+
+import jdk.jfr.*;
+
+
+@Name("Layer.Epoch")
+@Label("Training Epoch")
+@Category({ "Layer", "Training" })
+@Description("One pass over a training set")
+@Enabled(false)
+public class EpochEvent extends Event {
+
+    static final EventType type = EventType.getEventType(EpochEvent.class);
+
+    @Label("Epoch")
+    public int epoch;                     // epoch number, from one
+
+    @Label("Patterns")
+    public long patterns;                 // patterns presented
+
+    @Label("Loss")
+    public double loss;                   // mean sum squared error
+
+    @Label("Patterns per Second")
+    public double patternsPerSecond;      // training throughput
+
+
+}
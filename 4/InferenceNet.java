@@ -0,0 +1,251 @@
+//
+// InferenceNet
+//
+// This class implements a compact, forward-only copy of a trained network
+// of "Layer" objects, for use once training is complete.  The bias
+// weights and projection weight matrices are exported either as single
+// precision floats, one half of the size of the double precision
+// original, or as signed bytes with one scale factor per matrix row (per
+// receiving unit), one eighth of its size.  Activations are always kept
+// as floats.
+//
+// The layers are given to the constructor in the order in which their
+// activations should be computed, just as a caller would invoke
+// "computeActivation" on each of them.  Layers with no input projections
+// are input layers, and their values are supplied to "forward" in the
+// order in which they appear.  The activation of the last layer is
+// returned.  Projections from layers that are not in the given list are
+// ignored.  A single "InferenceNet" reuses its activation buffers, so it
+// should not be shared between threads without synchronization.
+//
+
+
+import java.util.*;
+
+
+public class InferenceNet {
+
+    // Storage format for weights ...
+    public enum Precision { float32, int8 }
+
+    public Precision precision;           // storage format for weights
+    public int layers;                    // number of layers
+    public int[] n;                       // size of each layer
+    public float[] min;                   // minimum activation of each layer
+    public float[] max;                   // maximum activation of each layer
+    public float[][] bias;                // bias weights of each layer
+    public int[][] source;                // sending layer of each projection
+    public float[][][] weights;           // float32 weights, row-major
+    public byte[][][] quantized;          // int8 weights, row-major
+    public float[][][] rowScale;          // int8 scale for each matrix row
+    private float[][] act;                // activation of each layer
+
+    // Constructor with the layers, in order of evaluation, and the weight
+    // storage format specified ...
+    public InferenceNet(Layer[] net, Precision precision) {
+	this.precision = precision;
+	this.layers = net.length;
+	this.n = new int[layers];
+	this.min = new float[layers];
+	this.max = new float[layers];
+	this.bias = new float[layers][];
+	this.source = new int[layers][];
+	this.weights = new float[layers][][];
+	this.quantized = new byte[layers][][];
+	this.rowScale = new float[layers][][];
+	this.act = new float[layers][];
+	for (int l = 0; l < layers; l++) {
+	    Layer layer = net[l];
+	    n[l] = layer.n;
+	    min[l] = (float) layer.min;
+	    max[l] = (float) layer.max;
+	    act[l] = new float[layer.n];
+	    bias[l] = new float[layer.n];
+	    for (int i = 0; i < layer.n; i++)
+		bias[l][i] = (float) layer.bias.get(i);
+	    // Record the projections from layers in the network ...
+	    List<Projection> kept = new ArrayList<Projection>();
+	    List<Integer> from = new ArrayList<Integer>();
+	    for (Projection p : layer.inputs) {
+		int s = indexOf(net, p.input);
+		if (s >= 0) {
+		    kept.add(p);
+		    from.add(s);
+		}
+	    }
+	    source[l] = new int[kept.size()];
+	    weights[l] = new float[kept.size()][];
+	    quantized[l] = new byte[kept.size()][];
+	    rowScale[l] = new float[kept.size()][];
+	    for (int k = 0; k < kept.size(); k++) {
+		Projection p = kept.get(k);
+		source[l][k] = from.get(k);
+		if (precision == Precision.float32)
+		    weights[l][k] = exportFloat(p);
+		else
+		    quantize(p, l, k);
+	    }
+	}
+    }
+
+    // indexOf -- Return the position of the given layer in the given
+    // array, or -1 if it is not present.
+    static int indexOf(Layer[] net, Layer layer) {
+	for (int l = 0; l < net.length; l++) {
+	    if (net[l] == layer)
+		return (l);
+	}
+	return (-1);
+    }
+
+    // exportFloat -- Return the weights of the given projection as single
+    // precision floats in row-major order.
+    static float[] exportFloat(Projection p) {
+	float[] w = new float[p.outputN * p.inputN];
+	for (int i = 0; i < p.outputN; i++)
+	    for (int j = 0; j < p.inputN; j++)
+		w[i * p.inputN + j] = (float) p.W.get(i, j);
+	return (w);
+    }
+
+    // quantize -- Store the weights of the given projection as signed bytes,
+    // scaling each row so that its largest magnitude weight maps to 127.
+    private void quantize(Projection p, int l, int k) {
+	byte[] q = new byte[p.outputN * p.inputN];
+	float[] scale = new float[p.outputN];
+	for (int i = 0; i < p.outputN; i++) {
+	    double largest = 0.0;
+	    for (int j = 0; j < p.inputN; j++)
+		largest = Math.max(largest, Math.abs(p.W.get(i, j)));
+	    double s = (largest > 0.0) ? (largest / 127.0) : 1.0;
+	    scale[i] = (float) s;
+	    for (int j = 0; j < p.inputN; j++)
+		q[i * p.inputN + j] = (byte) Math.round(p.W.get(i, j) / s);
+	}
+	quantized[l][k] = q;
+	rowScale[l][k] = scale;
+    }
+
+    // bytes -- Return the number of bytes used to store the bias weights
+    // and projection weights.
+    public long bytes() {
+	long total = 0;
+	for (int l = 0; l < layers; l++) {
+	    total += 4L * bias[l].length;
+	    for (int k = 0; k < source[l].length; k++) {
+		if (precision == Precision.float32)
+		    total += 4L * weights[l][k].length;
+		else
+		    total += quantized[l][k].length
+			+ 4L * rowScale[l][k].length;
+	    }
+	}
+	return (total);
+    }
+
+    // forward -- Compute the activation of every layer, given the values
+    // of the input layers, and return the activation of the last layer.
+    // The returned array is reused by the next call.  Return null on
+    // error.
+    public float[] forward(float[]... inputs) {
+	int next = 0;
+	for (int l = 0; l < layers; l++) {
+	    if (source[l].length == 0) {
+		// This is an input layer ...
+		if ((next >= inputs.length) || (inputs[next].length != n[l]))
+		    return (null);
+		System.arraycopy(inputs[next], 0, act[l], 0, n[l]);
+		next++;
+	    } else {
+		computeActivation(l);
+	    }
+	}
+	return (act[layers - 1]);
+    }
+
+    // computeActivation -- Calculate the activation values of the units in
+    // the given layer from the activation values of its sending layers.
+    private void computeActivation(int l) {
+	float[] a = act[l];
+	float[] b = bias[l];
+	int size = n[l];
+	float lo = min[l];
+	float range = max[l] - min[l];
+	for (int i = 0; i < size; i++) {
+	    float sum = b[i];
+	    for (int k = 0; k < source[l].length; k++) {
+		float[] x = act[source[l][k]];
+		int cols = x.length;
+		int row = i * cols;
+		if (precision == Precision.float32) {
+		    float[] w = weights[l][k];
+		    for (int j = 0; j < cols; j++)
+			sum += w[row + j] * x[j];
+		} else {
+		    byte[] q = quantized[l][k];
+		    float dot = 0.0f;
+		    for (int j = 0; j < cols; j++)
+			dot += q[row + j] * x[j];
+		    sum += dot * rowScale[l][k][i];
+		}
+	    }
+	    a[i] = lo + range / (1.0f + (float) Math.exp(-sum));
+	}
+    }
+
+    // Comparison -- The result of comparing this network to the double
+    // precision network from which it was exported.
+    static public class Comparison {
+	public int patterns;              // number of patterns compared
+	public double maxError;           // largest absolute difference
+	public double meanError;          // mean absolute difference
+
+	public String toString() {
+	    return ("patterns=" + patterns + " maxError=" + maxError
+		    + " meanError=" + meanError);
+	}
+    }
+
+    // compare -- Present each of the given input patterns to both the
+    // given double precision network, using "Layer.computeActivation", and
+    // this exported network, returning the differences between the output
+    // activations.  The network must have a single input layer, which must
+    // be the first layer.  Return null on error.
+    public Comparison compare(Layer[] net, List<Vector> patterns) {
+	if ((net.length != layers) || !(net[0].inputs.isEmpty()))
+	    return (null);
+	for (int l = 1; l < layers; l++) {
+	    // Any other input layer would need its own values ...
+	    if (source[l].length == 0)
+		return (null);
+	}
+	Comparison result = new Comparison();
+	float[] in = new float[n[0]];
+	double total = 0.0;
+	int count = 0;
+	for (Vector pattern : patterns) {
+	    if (!(net[0].loadInput(pattern)))
+		return (null);
+	    for (int l = 1; l < layers; l++)
+		net[l].computeActivation();
+	    for (int j = 0; j < n[0]; j++)
+		in[j] = (float) pattern.get(j);
+	    float[] out = forward(in);
+	    if (out == null)
+		return (null);
+	    Vector expected = net[layers - 1].act;
+	    for (int i = 0; i < out.length; i++) {
+		double error = Math.abs(out[i] - expected.get(i));
+		result.maxError = Math.max(result.maxError, error);
+		total += error;
+		count++;
+	    }
+	    result.patterns++;
+	}
+	if (count > 0)
+	    result.meanError = total / count;
+	return (result);
+    }
+
+
+}
@@ -0,0 +1,338 @@
+//
+// Kernels
+//
+// This class collects the numerical inner loops used by the "Layer" class,
+// expressed over flat arrays of doubles: matrix-vector products, the
+// squashing (logistic) activation function and its derivative, and simple
+// elementwise operations.  Two implementations are provided.  The
+// "ScalarKernels" class uses plain loops, while the "VectorKernels" class
+// uses the incubating Java Vector API ("jdk.incubator.vector") in order to
+// make use of the SIMD units of the processor.  The implementation is
+// selected once, at run time, by "Kernels.get".  The Vector API version
+// is used only if that module is available (e.g., the JVM was started with
+// "--add-modules jdk.incubator.vector") and if it agrees numerically with
+// the scalar version on a small probe problem.  Setting the system
+// property "layer.kernels" to "scalar" forces the use of the plain loops.
+//
+// Matrices are stored in row-major order, so the weight from input unit
+// "j" to output unit "i" of a "rows" by "cols" matrix is "w[i * cols + j]".
+// The squashing function is the logistic function, rescaled to produce
+// values between "min" and "max", as computed by "Vector.squash".
+//
+// The "activate", "outputDelta" and "hiddenDelta" kernels are fused:  each
+// makes a single pass over the units of a layer, rather than computing
+// net inputs, activations, derivatives and products in separate passes
+// over separately allocated vectors.  The derivative of the squashing
+// function is computed from the activation value, (act - min) *
+// (max - act) / (max - min), so the exponential need not be recomputed.
+//
+
+
+import java.util.*;
+
+
+public abstract class Kernels {
+
+    // Largest absolute difference permitted between the selected kernels
+    // and the scalar kernels on the start-up probe problem ...
+    static public final double tolerance = 1.0e-9;
+
+    static private Kernels instance = null;
+
+    // get -- Return the kernel implementation selected for this JVM.
+    static public synchronized Kernels get() {
+	if (instance == null)
+	    instance = select();
+	return (instance);
+    }
+
+    // select -- Choose the fastest usable kernel implementation.
+    static private Kernels select() {
+	Kernels scalar = new ScalarKernels();
+	String mode = System.getProperty("layer.kernels", "auto");
+	if (mode.equals("scalar"))
+	    return (scalar);
+	try {
+	    // Load the Vector API version reflectively, so that this class
+	    // still loads when the incubator module is absent ...
+	    Kernels simd = (Kernels) Class.forName("VectorKernels")
+		.getDeclaredConstructor().newInstance();
+	    if (agree(simd, scalar, tolerance))
+		return (simd);
+	} catch (Throwable e) {
+	    // The Vector API is not available ...
+	}
+	return (scalar);
+    }
+
+    // agree -- Run both kernel implementations over the same randomly
+    // generated problem, returning true if every result agrees to within
+    // the given tolerance.
+    static public boolean agree(Kernels a, Kernels b, double tol) {
+	Random rand = new Random(175);
+	int rows = 37;
+	int cols = 53;
+	double[] w = new double[rows * cols];
+	double[] x = new double[cols];
+	double[] t = new double[rows];
+	for (int i = 0; i < w.length; i++)
+	    w[i] = rand.nextGaussian();
+	for (int j = 0; j < cols; j++)
+	    x[j] = rand.nextGaussian();
+	for (int i = 0; i < rows; i++)
+	    t[i] = rand.nextGaussian();
+	double[] ya = new double[rows];
+	double[] yb = new double[rows];
+	a.matVec(w, rows, cols, x, ya);
+	b.matVec(w, rows, cols, x, yb);
+	if (!close(ya, yb, rows, tol))
+	    return (false);
+	double[] za = new double[cols];
+	double[] zb = new double[cols];
+	a.matTransVec(w, rows, cols, t, za);
+	b.matTransVec(w, rows, cols, t, zb);
+	if (!close(za, zb, cols, tol))
+	    return (false);
+	a.add(t, ya, rows);
+	b.add(t, yb, rows);
+	if (!close(ya, yb, rows, tol))
+	    return (false);
+	a.squash(ya, za, rows, -1.0, 2.0);
+	b.squash(yb, zb, rows, -1.0, 2.0);
+	if (!close(za, zb, rows, tol))
+	    return (false);
+	a.squashDerivative(ya, za, rows, -1.0, 2.0);
+	b.squashDerivative(yb, zb, rows, -1.0, 2.0);
+	if (!close(za, zb, rows, tol))
+	    return (false);
+	a.multiply(t, ya, za, rows);
+	b.multiply(t, yb, zb, rows);
+	if (!close(za, zb, rows, tol))
+	    return (false);
+	double[][] ws = { w, w };
+	double[][] xs = { x, x };
+	int[] widths = { cols, cols };
+	double[] na = new double[rows];
+	double[] nb = new double[rows];
+	a.activate(t, ws, xs, widths, 2, na, ya, rows, -1.0, 2.0, null);
+	b.activate(t, ws, xs, widths, 2, nb, yb, rows, -1.0, 2.0, null);
+	if (!close(na, nb, rows, tol) || !close(ya, yb, rows, tol))
+	    return (false);
+	a.outputDelta(t, ya, za, rows, -1.0, 2.0);
+	b.outputDelta(t, yb, zb, rows, -1.0, 2.0);
+	if (!close(za, zb, rows, tol))
+	    return (false);
+	a.hiddenDelta(t, ya, za, rows, -1.0, 2.0);
+	b.hiddenDelta(t, yb, zb, rows, -1.0, 2.0);
+	if (!close(za, zb, rows, tol))
+	    return (false);
+	double[] ga = w.clone();
+	double[] gb = w.clone();
+	a.rankOne(ga, 0, rows, cols, t, 0, x, 0);
+	b.rankOne(gb, 0, rows, cols, t, 0, x, 0);
+	a.axpy(0.5, x, 1, ga, 3, cols - 1);
+	b.axpy(0.5, x, 1, gb, 3, cols - 1);
+	return (close(ga, gb, ga.length, tol));
+    }
+
+    // close -- Return true if the first "n" elements of the two arrays
+    // differ by no more than the given tolerance.
+    static boolean close(double[] a, double[] b, int n, double tol) {
+	for (int i = 0; i < n; i++) {
+	    if (!(Math.abs(a[i] - b[i]) <= tol))
+		return (false);
+	}
+	return (true);
+    }
+
+    // name -- Return a short description of this implementation.
+    public abstract String name();
+
+    // matVec -- Add the product of the "rows" by "cols" matrix "w" and the
+    // vector "x" into the vector "y".
+    public void matVec(double[] w, int rows, int cols,
+		       double[] x, double[] y) {
+	matVec(w, 0, rows, cols, x, 0, y, 0);
+    }
+
+    // matVec -- Add the product of the "rows" by "cols" matrix stored in
+    // "w" from "wOff" and the vector stored in "x" from "xOff" into the
+    // vector stored in "y" from "yOff".
+    public abstract void matVec(double[] w, int wOff, int rows, int cols,
+				double[] x, int xOff, double[] y, int yOff);
+
+    // matTransVec -- Add the product of the transpose of the "rows" by
+    // "cols" matrix "w" and the vector "x" into the vector "y".
+    public void matTransVec(double[] w, int rows, int cols,
+			    double[] x, double[] y) {
+	matTransVec(w, 0, rows, cols, x, 0, y, 0);
+    }
+
+    // matTransVec -- Add the product of the transpose of the "rows" by
+    // "cols" matrix stored in "w" from "wOff" and the vector stored in "x"
+    // from "xOff" into the vector stored in "y" from "yOff".
+    public abstract void matTransVec(double[] w, int wOff, int rows,
+				     int cols, double[] x, int xOff,
+				     double[] y, int yOff);
+
+    // rankOne -- Add the outer product of the "rows" values stored in "d"
+    // from "dOff" and the "cols" values stored in "x" from "xOff" into the
+    // matrix stored in "g" from "gOff".  This accumulates weight deltas.
+    public abstract void rankOne(double[] g, int gOff, int rows, int cols,
+				 double[] d, int dOff, double[] x, int xOff);
+
+    // axpy -- Add "alpha" times the "n" values stored in "x" from "xOff"
+    // into the values stored in "y" from "yOff".
+    public abstract void axpy(double alpha, double[] x, int xOff,
+			      double[] y, int yOff, int n);
+
+    // add -- Add the first "n" elements of "x" into "y".
+    public void add(double[] x, double[] y, int n) {
+	axpy(1.0, x, 0, y, 0, n);
+    }
+
+    // squash -- Apply the squashing function to the first "n" net input
+    // values, placing the resulting activation values in "act".
+    public void squash(double[] net, double[] act, int n,
+		       double min, double max) {
+	squash(net, 0, act, 0, n, min, max, null);
+    }
+
+    // squash -- Apply the squashing function to the "n" net input values
+    // stored in "net" from "netOff", placing the resulting activation
+    // values in "act" from "actOff".  If a lookup table is given, it is
+    // used in place of the exact logistic function.
+    public abstract void squash(double[] net, int netOff, double[] act,
+				int actOff, int n, double min, double max,
+				SigmoidTable table);
+
+    // squashDerivative -- Compute the derivative of the squashing function
+    // at the first "n" net input values, placing the results in "der".
+    public abstract void squashDerivative(double[] net, double[] der, int n,
+					  double min, double max);
+
+    // multiply -- Place the elementwise product of the first "n" elements
+    // of "x" and "y" into "out".
+    public abstract void multiply(double[] x, double[] y, double[] out,
+				  int n);
+
+    // activate -- For each of the "n" units of a layer, sum its bias
+    // weight and the weighted inputs from the first "count" projections,
+    // storing the result in "net", and squash it into "act", all in one
+    // pass.  Projection "p" has weights "w[p]", laid out with "cols[p]"
+    // columns, and input activations "x[p]".  If a lookup table is given,
+    // it is used in place of the exact logistic function.
+    public abstract void activate(double[] bias, double[][] w, double[][] x,
+				  int[] cols, int count,
+				  double[] net, double[] act, int n,
+				  double min, double max, SigmoidTable table);
+
+    // outputDelta -- Compute the deltas of "n" output units from their
+    // targets and activations, in one pass.
+    public void outputDelta(double[] targ, double[] act, double[] delta,
+			    int n, double min, double max) {
+	outputDelta(targ, 0, act, 0, delta, 0, n, min, max);
+    }
+
+    // outputDelta -- Compute the deltas of "n" output units from their
+    // targets and activations, stored from the given offsets, in one pass.
+    public abstract void outputDelta(double[] targ, int targOff,
+				     double[] act, int actOff,
+				     double[] delta, int deltaOff, int n,
+				     double min, double max);
+
+    // hiddenDelta -- Compute the deltas of "n" hidden units from their
+    // back-propagated error and activations, in one pass.
+    public void hiddenDelta(double[] err, double[] act, double[] delta,
+			    int n, double min, double max) {
+	hiddenDelta(err, 0, act, 0, delta, 0, n, min, max);
+    }
+
+    // hiddenDelta -- Compute the deltas of "n" hidden units from their
+    // back-propagated error and activations, stored from the given
+    // offsets, in one pass.
+    public abstract void hiddenDelta(double[] err, int errOff,
+				     double[] act, int actOff,
+				     double[] delta, int deltaOff, int n,
+				     double min, double max);
+
+
+    // The sparse kernels below make irregular memory accesses, which gain
+    // little from SIMD execution, so a single scalar implementation is
+    // shared by every kernel class.  Compressed sparse row (CSR) matrices
+    // store the nonzero weights of row "i" at positions "rowStart[i]" to
+    // "rowStart[i + 1] - 1", relative to "wOff", with their column numbers
+    // in "colIndex" at the same positions.
+
+    // sparseMatVec -- Add the product of the "rows" by "cols" matrix stored
+    // in "w" from "wOff" and the sparse vector with "nnz" elements given by
+    // "idx" and "val" into the vector stored in "y" from "yOff".
+    public void sparseMatVec(double[] w, int wOff, int rows, int cols,
+			     int[] idx, double[] val, int nnz,
+			     double[] y, int yOff) {
+	for (int i = 0; i < rows; i++) {
+	    int row = wOff + (i * cols);
+	    double sum = 0.0;
+	    for (int e = 0; e < nnz; e++)
+		sum += w[row + idx[e]] * val[e];
+	    y[yOff + i] += sum;
+	}
+    }
+
+    // sparseRankOne -- Add the outer product of the "rows" values stored in
+    // "d" from "dOff" and the given sparse vector into the "rows" by "cols"
+    // matrix stored in "g" from "gOff".
+    public void sparseRankOne(double[] g, int gOff, int rows, int cols,
+			      double[] d, int dOff,
+			      int[] idx, double[] val, int nnz) {
+	for (int i = 0; i < rows; i++) {
+	    int row = gOff + (i * cols);
+	    double di = d[dOff + i];
+	    for (int e = 0; e < nnz; e++)
+		g[row + idx[e]] += di * val[e];
+	}
+    }
+
+    // csrMatVec -- Add the product of the "rows" row CSR matrix stored in
+    // "w" from "wOff" and the vector stored in "x" from "xOff" into the
+    // vector stored in "y" from "yOff".
+    public void csrMatVec(double[] w, int wOff, int[] rowStart,
+			  int[] colIndex, int rows, double[] x, int xOff,
+			  double[] y, int yOff) {
+	for (int i = 0; i < rows; i++) {
+	    double sum = 0.0;
+	    for (int e = rowStart[i]; e < rowStart[i + 1]; e++)
+		sum += w[wOff + e] * x[xOff + colIndex[e]];
+	    y[yOff + i] += sum;
+	}
+    }
+
+    // csrMatTransVec -- Add the product of the transpose of the "rows" row
+    // CSR matrix stored in "w" from "wOff" and the vector stored in "x"
+    // from "xOff" into the vector stored in "y" from "yOff".
+    public void csrMatTransVec(double[] w, int wOff, int[] rowStart,
+			       int[] colIndex, int rows, double[] x, int xOff,
+			       double[] y, int yOff) {
+	for (int i = 0; i < rows; i++) {
+	    double xi = x[xOff + i];
+	    for (int e = rowStart[i]; e < rowStart[i + 1]; e++)
+		y[yOff + colIndex[e]] += w[wOff + e] * xi;
+	}
+    }
+
+    // csrRankOne -- Add the outer product of the "rows" values stored in
+    // "d" from "dOff" and the values stored in "x" from "xOff", restricted
+    // to the nonzero pattern of a CSR matrix, into the CSR values stored in
+    // "g" from "gOff".
+    public void csrRankOne(double[] g, int gOff, int[] rowStart,
+			   int[] colIndex, int rows, double[] d, int dOff,
+			   double[] x, int xOff) {
+	for (int i = 0; i < rows; i++) {
+	    double di = d[dOff + i];
+	    for (int e = rowStart[i]; e < rowStart[i + 1]; e++)
+		g[gOff + e] += di * x[xOff + colIndex[e]];
+	}
+    }
+
+
+}
@@ -3,6 +3,10 @@
 //
 // This class implements a layer of processing units.
 //
+// As with "Plan", the time taken by "computeActivation" and "computeDelta"
+// is reported to "listener", if it is set, and as "LayerEvent" flight
+// recorder events, naming the layer by "position".
+//
 // David Noelle -- Tue Apr 24 15:51:19 PDT 2007
 //
 
@@ -23,6 +27,21 @@ public class Layer {
     public Vector biasDelta;              // bias weight delta values
     public List<Projection> inputs;       // projections into this layer
     public List<Projection> outputs;      // projections out of this layer
+    public SigmoidTable squashTable;      // optional fast squashing function
+    public TrainingListener listener;     // optional training observer
+    public int position;                  // layer number given to "listener"
+
+    // Flat scratch arrays used by the numerical kernels ...
+    private double[] netBuf;              // net input levels
+    private double[] actBuf;              // activation levels
+    private double[] errBuf;              // back-propagated error
+    private double[] deltaBuf;            // unit delta values
+    private double[] biasBuf;             // bias weights
+    private double[] inBuf;               // values from an adjacent layer
+    private double[][] outW;              // weights of each output projection
+    private double[][] projW;             // weights of each input projection
+    private double[][] projX;             // inputs of each input projection
+    private int[] projCols;               // width of each input projection
 
     // Default constructor ...
     public Layer() {
@@ -35,8 +54,9 @@ public class Layer {
 	this.delta = null;
 	this.bias = null;
 	this.biasDelta = null;
-	this.inputs = new LinkedList<Projection>();
-	this.outputs = new LinkedList<Projection>();
+	this.inputs = new ArrayList<Projection>();
+	this.outputs = new ArrayList<Projection>();
+	this.squashTable = null;
     }
 
     // Constructor with size and activation range specified ...
@@ -51,8 +71,10 @@ public class Layer {
 	    this.delta = new Vector(size);
 	    this.bias = new Vector(size);
 	    this.biasDelta = new Vector(size);
-	    this.inputs = new LinkedList<Projection>();
-	    this.outputs = new LinkedList<Projection>();
+	    this.inputs = new ArrayList<Projection>();
+	    this.outputs = new ArrayList<Projection>();
+	    this.squashTable = null;
+	    allocateBuffers(size);
 	} else {
 	    this.n = -1;
 	    this.min = 0.0;
@@ -63,8 +85,9 @@ public class Layer {
 	    this.delta = null;
 	    this.bias = null;
 	    this.biasDelta = null;
-	    this.inputs = new LinkedList<Projection>();
-	    this.outputs = new LinkedList<Projection>();
+	    this.inputs = new ArrayList<Projection>();
+	    this.outputs = new ArrayList<Projection>();
+	    this.squashTable = null;
 	}
     }
 
@@ -85,8 +108,9 @@ public class Layer {
 	    delta = new Vector(size);
 	    bias = new Vector(size);
 	    biasDelta = new Vector(size);
-	    inputs = new LinkedList<Projection>();
-	    outputs = new LinkedList<Projection>();
+	    inputs = new ArrayList<Projection>();
+	    outputs = new ArrayList<Projection>();
+	    allocateBuffers(size);
 	} else {
 	    n = -1;
 	    net = null;
@@ -95,11 +119,102 @@ public class Layer {
 	    delta = null;
 	    bias = null;
 	    biasDelta = null;
-	    inputs = new LinkedList<Projection>();
-	    outputs = new LinkedList<Projection>();
+	    inputs = new ArrayList<Projection>();
+	    outputs = new ArrayList<Projection>();
+	}
+    }
+
+    // allocateBuffers -- Allocate the scratch arrays used by the numerical
+    // kernels for a layer of the given size.
+    private void allocateBuffers(int size) {
+	netBuf = new double[size];
+	actBuf = new double[size];
+	errBuf = new double[size];
+	deltaBuf = new double[size];
+	biasBuf = new double[size];
+    }
+
+    // gather -- Copy the values in the given vector into the given array,
+    // returning the array.
+    static double[] gather(Vector v, double[] a) {
+	for (int i = 0; i < v.dim(); i++)
+	    a[i] = v.get(i);
+	return (a);
+    }
+
+    // scatter -- Copy the first "v.dim()" values in the given array into
+    // the given vector.
+    static void scatter(double[] a, Vector v) {
+	for (int i = 0; i < v.dim(); i++)
+	    v.set(i, a[i]);
+    }
+
+    // gatherWeights -- Copy the weight matrix of the given projection into
+    // the given array in row-major order, returning the array.  A larger
+    // array is allocated if the given one is too small.
+    static double[] gatherWeights(Projection p, double[] a) {
+	if ((a == null) || (a.length < (p.outputN * p.inputN)))
+	    a = new double[p.outputN * p.inputN];
+	for (int i = 0; i < p.outputN; i++)
+	    for (int j = 0; j < p.inputN; j++)
+		a[i * p.inputN + j] = p.W.get(i, j);
+	return (a);
+    }
+
+    // gatherInputs -- Copy the weights and input activations of each input
+    // projection into the per-projection scratch arrays, returning the
+    // number of projections.
+    private int gatherInputs() {
+	int count = inputs.size();
+	if ((projW == null) || (projW.length < count)) {
+	    projW = new double[count][];
+	    projX = new double[count][];
+	    projCols = new int[count];
+	}
+	int p = 0;
+	for (Projection proj : inputs) {
+	    projW[p] = gatherWeights(proj, projW[p]);
+	    if ((projX[p] == null) || (projX[p].length < proj.inputN))
+		projX[p] = new double[proj.inputN];
+	    gather(proj.input.act, projX[p]);
+	    projCols[p] = proj.inputN;
+	    p++;
+	}
+	return (count);
+    }
+
+    // gatherOutputs -- Copy the weights of each output projection into
+    // the per-projection scratch arrays.
+    private void gatherOutputs() {
+	int count = outputs.size();
+	if ((outW == null) || (outW.length < count))
+	    outW = new double[count][];
+	int p = 0;
+	for (Projection proj : outputs) {
+	    outW[p] = gatherWeights(proj, outW[p]);
+	    p++;
 	}
     }
 
+    // inputBuffer -- Return a scratch array of at least the given length
+    // for holding the values of an adjacent layer.
+    private double[] inputBuffer(int size) {
+	if ((inBuf == null) || (inBuf.length < size))
+	    inBuf = new double[size];
+	return (inBuf);
+    }
+
+    // useSquashTable -- Compute activation values using an interpolated
+    // lookup table for the squashing function, accurate to within the given
+    // fraction of the activation range.  A non-positive error bound restores
+    // the exact squashing function.
+    public void useSquashTable(double maxError) {
+	if (maxError > 0.0)
+	    squashTable = new SigmoidTable(maxError);
+	else
+	    squashTable = null;
+    }
+
     // setActivationRange -- Change the minimum and maximum activation
     // values for the units in this layer.
     public void setActivationRange(double min, double max) {
@@ -171,6 +286,21 @@ public class Layer {
 	}
     }
 
+    // loadInput -- Load the given array of values into the activation
+    // vector for this layer, as for a "Vector" of values.  This allows
+    // patterns from a "PatternStream" batch to be presented directly.
+    // Return false on error.
+    public boolean loadInput(double[] v) {
+	if (act.valid() && (act.dim() == v.length)) {
+	    for (int i = 0; i < act.dim(); i++)
+		act.set(i, v[i]);
+	    return (true);
+	} else {
+	    // The sizes don't match ...
+	    return (false);
+	}
+    }
+
     // loadTarget -- Load the given vector of values into the target vector
     // for this layer.  Specifically, just direct the target reference for
     // this layer to the given vector, allocating no new storage.  This
@@ -186,53 +316,113 @@ public class Layer {
     }
 
     // computeActivation -- Calculate the activation values of the units in
-    // this layer based on their inputs and bias weights.
+    // this layer based on their inputs and bias weights.  The bias, the
+    // weighted sums and the squashing function are computed in one pass.
     public void computeActivation() {
+	if (!(inputs.isEmpty()) && observed()) {
+	    LayerEvent event = new LayerEvent();
+	    event.begin();
+	    long start = System.nanoTime();
+	    activate();
+	    long nanos = System.nanoTime() - start;
+	    event.end();
+	    if (event.shouldCommit()) {
+		event.layer = position;
+		event.units = n;
+		event.phase = "forward";
+		event.commit();
+	    }
+	    if (listener != null)
+		listener.forward(position, nanos);
+	} else {
+	    activate();
+	}
+    }
+
+    // observed -- Return true if this layer is being observed, either by a
+    // listener or by a flight recording.
+    boolean observed() {
+	return ((listener != null) || LayerEvent.type.isEnabled());
+    }
+
+    // activate -- Compute the activation values, as for
+    // "computeActivation".
+    private void activate() {
 	if (!(inputs.isEmpty())) {
 	    // This is not an input layer, so we can update it ...
-	    // Add in the bias values to the net inputs ...
-	    net = net.copy(bias);
-	    // Sum up the contributions of each projection ...
-	    for (Projection p : inputs)
-		net = net.sum(p.W.product(p.input.act));
-	    act = net.squash(min, max);
+	    int count = gatherInputs();
+	    gather(bias, biasBuf);
+	    Kernels.get().activate(biasBuf, projW, projX, projCols, count,
+				   netBuf, actBuf, n, min, max, squashTable);
+	    scatter(netBuf, net);
+	    scatter(actBuf, act);
 	}
     }
 
     // computeOutputDelta -- Calculate the unit delta values for this
-    // output layer.
+    // output layer.  The derivative of the squashing function is computed
+    // from the current activation values, in the same pass as the deltas.
     public void computeOutputDelta() {
-
-	// PLACE YOUR CODE HERE ...
-    	Vector err = targ.difference(act);  //subtracting act from the target
-    	Vector der = net.derivative(min, max); //takes the derivative of the min and max
-    	for (int i = 0; i < n; i++)// magical array that goes through all the numbers
-    	{
-    		delta.set(i, err.get(i)*der.get(i));//takes the number in i from err and der and multiples them 
-    	}
+	gather(targ, errBuf);
+	gather(act, actBuf);
+	Kernels.get().outputDelta(errBuf, actBuf, deltaBuf, n, min, max);
+	scatter(deltaBuf, delta);
     }
 
     // computeHiddenDelta -- Calculate the unit delta values for this hidden
-    // layer.
+    // layer.  The derivative of the squashing function is computed from
+    // the current activation values, in the same pass as the deltas.
     public void computeHiddenDelta() {
-
-	// PLACE YOUR CODE HERE ...
-    	Vector err = new Vector(n,0.0);//makes a new vector and makes
-     	//
-     	for(Projection p: outputs)//for all projection p outputs do
-     	{
-     		err = err.sum((p.W.transpose().product(p.output.delta)));  //output vector delta k
-     	}
-     	
-    	Vector deriva = net.derivative(min, max); //creates a new vector with the min and max
-    	for (int i = 0; i < n; i++)
-    	{
-    		delta.set(i, err.get(i)*deriva.get(i));// takes the delta set of i and multiplies err and deriv of them
-    	}
+	Kernels k = Kernels.get();
+	// Back-propagate the deltas of each receiving layer ...
+	Arrays.fill(errBuf, 0.0);
+	gatherOutputs();
+	int o = 0;
+	for (Projection p : outputs) {
+	    double[] d = gather(p.output.delta, inputBuffer(p.outputN));
+	    k.matTransVec(outW[o++], p.outputN, p.inputN, d, errBuf);
+	}
+	gather(act, actBuf);
+	k.hiddenDelta(errBuf, actBuf, deltaBuf, n, min, max);
+	scatter(deltaBuf, delta);
     }
 
     // computeDelta -- Calculate the unit delta values for this layer.
     public void computeDelta() {
+	if (inputs.isEmpty() || !observed()) {
+	    delta();
+	    return;
+	}
+	LayerEvent event = new LayerEvent();
+	event.begin();
+	long start = System.nanoTime();
+	delta();
+	long nanos = System.nanoTime() - start;
+	event.end();
+	double deltaNorm = Plan.norm(deltaBuf, 0, n);
+	if (event.shouldCommit()) {
+	    event.layer = position;
+	    event.units = n;
+	    event.phase = "backward";
+	    event.deltaNorm = deltaNorm;
+	    event.commit();
+	}
+	if (listener != null)
+	    listener.backward(position, nanos, deltaNorm, biasDeltaNorm());
+    }
+
+    // biasDeltaNorm -- Return the norm of the accumulated bias deltas.
+    private double biasDeltaNorm() {
+	double sum = 0.0;
+	if (biasDelta != null) {
+	    for (int i = 0; i < biasDelta.dim(); i++)
+		sum += biasDelta.get(i) * biasDelta.get(i);
+	}
+	return (Math.sqrt(sum));
+    }
+
+    // delta -- Compute the unit delta values, as for "computeDelta".
+    private void delta() {
 	if (outputs.isEmpty()) {
 	    // This is an output layer ...
 	    computeOutputDelta();
@@ -252,12 +442,24 @@ public class Layer {
     // multiple weight changes to be "summed up".  Note also that these
     // weight delta values are prior to the application of the learning rate.
     public void incrementBiasDeltas() {
-	biasDelta = biasDelta.sum(delta);
+	for (int i = 0; i < n; i++)
+	    biasDelta.set(i, biasDelta.get(i) + delta.get(i));
     }
 
-    // updateBiases -- Update the bias weights.
+    // updateBiases -- Update the bias weights, in place.
     public void updateBiases(double learningRate) {
-	bias = bias.sum(biasDelta.multiplyByScalar(learningRate));
+	for (int i = 0; i < n; i++)
+	    bias.set(i, bias.get(i) + (learningRate * biasDelta.get(i)));
+    }
+
+    // updateBiases -- Update the bias weights, in place, using the given
+    // optimizer, which should be used for the bias weights of this layer
+    // alone.
+    public void updateBiases(Optimizer opt) {
+	gather(bias, biasBuf);
+	gather(biasDelta, errBuf);
+	if (opt.update(biasBuf, errBuf))
+	    scatter(biasBuf, bias);
     }
 
 
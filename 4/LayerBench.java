@@ -0,0 +1,159 @@
+//
+// LayerBench
+//
+// This class implements a micro-benchmark of the "Layer" forward and
+// backward operations:  "computeActivation", "computeOutputDelta",
+// "computeHiddenDelta", "incrementBiasDeltas" and "updateBiases".  For each
+// combination of layer width (16 to 4096 units, by factors of four) and
+// fan-in (1 to 4 input projections), each operation is run repeatedly
+// for a warm-up period and then for a measurement period, and its
+// throughput and the bytes allocated per operation are reported.  The
+// forward and backward passes of the same network compiled into a "Plan"
+// are also measured, for comparison with the layer-by-layer path.  The
+// results of each operation are consumed so that the JIT compiler cannot
+// discard the work.
+//
+// Usage:  java LayerBench [max width] [max fan-in] [seconds per measurement]
+//
+// Run with "--add-modules jdk.incubator.vector" to measure the Vector API
+// kernels, or with "-Dlayer.kernels=scalar" for the plain loops.
+//
+
+
+import java.util.*;
+
+
+public class LayerBench {
+
+    // Operation -- One benchmarked operation.
+    interface Operation {
+	void run();
+    }
+
+    static volatile double sink;          // consumes results
+
+    // measure -- Run the given operation for the given time, after an
+    // equal warm-up period, and return its throughput in operations per
+    // second and the bytes allocated per operation.
+    static double[] measure(Operation op, Layer result, double seconds) {
+	long period = (long) (seconds * 1.0e9);
+	for (int pass = 0; pass < 2; pass++) {
+	    long ops = 0;
+	    long bytes = TrainingMetrics.allocatedBytes();
+	    long start = System.nanoTime();
+	    long stop = start + period;
+	    long now;
+	    do {
+		for (int i = 0; i < 16; i++)
+		    op.run();
+		ops += 16;
+		sink += result.act.get(0) + result.delta.get(0)
+		    + result.bias.get(0);
+		now = System.nanoTime();
+	    } while (now < stop);
+	    bytes = TrainingMetrics.allocatedBytes() - bytes;
+	    if (pass == 1)
+		return (new double[] { ops * 1.0e9 / (now - start),
+				       (double) bytes / ops });
+	}
+	return (null);
+    }
+
+    public static void main(String[] args) {
+	int maxWidth = (args.length > 0) ? Integer.parseInt(args[0]) : 4096;
+	int maxFanIn = (args.length > 1) ? Integer.parseInt(args[1]) : 4;
+	double seconds = (args.length > 2) ? Double.parseDouble(args[2]) : 1.0;
+	System.out.println("kernels: " + Kernels.get().name());
+	System.out.printf("%-20s %6s %6s %14s %12s%n",
+			  "operation", "width", "fanIn", "ops/s", "bytes/op");
+	for (int width = 16; width <= maxWidth; width *= 4) {
+	    for (int fanIn = 1; fanIn <= maxFanIn; fanIn *= 2) {
+		// Input layers project to a hidden layer, which projects to
+		// an output layer of the same width ...
+		final Layer hidden = new Layer(width);
+		final Layer output = new Layer(width);
+		final Layer[] net = new Layer[fanIn + 2];
+		final double[][] inputs = new double[fanIn][];
+		for (int f = 0; f < fanIn; f++) {
+		    Layer input = new Layer(width);
+		    net[f] = input;
+		    Vector v = new Vector(width);
+		    v.randomize(0.0, 1.0);
+		    input.loadInput(v);
+		    inputs[f] = Layer.gather(v, new double[width]);
+		    Projection p = new Projection(width, width);
+		    p.W.randomize(-0.1, 0.1);
+		    input.addOutputProjection(p);
+		    hidden.addInputProjection(p);
+		}
+		Projection q = new Projection(width, width);
+		q.W.randomize(-0.1, 0.1);
+		hidden.addOutputProjection(q);
+		output.addInputProjection(q);
+		hidden.randomizeBiases(-0.1, 0.1);
+		output.randomizeBiases(-0.1, 0.1);
+		Vector target = new Vector(width);
+		target.randomize(0.0, 1.0);
+		output.loadTarget(target);
+		final double[] targ = Layer.gather(target, new double[width]);
+		net[fanIn] = hidden;
+		net[fanIn + 1] = output;
+		final Plan plan = Plan.compile(net);
+		hidden.computeActivation();
+		output.computeActivation();
+		output.computeOutputDelta();
+		report("computeActivation", width, fanIn,
+		       measure(new Operation() {
+			       public void run() {
+				   hidden.computeActivation();
+			       }
+			   }, hidden, seconds));
+		report("computeOutputDelta", width, fanIn,
+		       measure(new Operation() {
+			       public void run() {
+				   output.computeOutputDelta();
+			       }
+			   }, output, seconds));
+		report("computeHiddenDelta", width, fanIn,
+		       measure(new Operation() {
+			       public void run() {
+				   hidden.computeHiddenDelta();
+			       }
+			   }, hidden, seconds));
+		report("incrementBiasDeltas", width, fanIn,
+		       measure(new Operation() {
+			       public void run() {
+				   hidden.incrementBiasDeltas();
+			       }
+			   }, hidden, seconds));
+		hidden.clearBiasDeltas();
+		report("updateBiases", width, fanIn,
+		       measure(new Operation() {
+			       public void run() {
+				   hidden.updateBiases(1.0e-9);
+			       }
+			   }, hidden, seconds));
+		report("Plan.forward", width, fanIn,
+		       measure(new Operation() {
+			       public void run() {
+				   plan.forward(inputs);
+			       }
+			   }, hidden, seconds));
+		report("Plan.backward", width, fanIn,
+		       measure(new Operation() {
+			       public void run() {
+				   plan.backward(targ);
+			       }
+			   }, hidden, seconds));
+	    }
+	}
+    }
+
+    // report -- Print one line of results.
+    static void report(String name, int width, int fanIn, double[] r) {
+	System.out.printf("%-20s %6d %6d %14.1f %12.1f%n",
+			  name, width, fanIn, r[0], r[1]);
+    }
+
+
+}
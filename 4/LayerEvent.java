@@ -0,0 +1,38 @@
+//
+// LayerEvent
+//
+// This class defines the Java Flight Recorder event emitted by "Plan", and
+// by "Layer", for each forward or backward pass through a layer while a
+// recording that enables it is running.  The event is disabled by
+// default, since enabling it makes every pass take timings, and it
+// records every pass unless the recording sets a threshold.
+//
+
+
+import jdk.jfr.*;
+
+
+@Name("Layer.Pass")
+@Label("Layer Pass")
+@Category({ "Layer", "Training" })
+@Description("Forward or backward pass through one layer")
+@Enabled(false)
+@Threshold("0 ms")
+public class LayerEvent extends Event {
+
+    static final EventType type = EventType.getEventType(LayerEvent.class);
+
+    @Label("Layer")
+    public int layer;                     // position in the plan
+
+    @Label("Units")
+    public int units;                     // number of units in the layer
+
+    @Label("Phase")
+    public String phase;                  // "forward" or "backward"
+
+    @Label("Delta Norm")
+    public double deltaNorm;              // norm of unit deltas, backward
+
+
+}
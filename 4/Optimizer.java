@@ -0,0 +1,61 @@
+//
+// Optimizer
+//
+// This class is the base of the optimization methods that update network
+// parameters from accumulated parameter deltas.  As elsewhere in this
+// code, deltas point in the direction that reduces the error (they are
+// negated gradients) and they are accumulated prior to the application of
+// the learning rate.  Each optimizer is bound to a single parameter array,
+// such as "Plan.params" or the bias weights of one "Layer", and any
+// per-parameter state (e.g., momentum) is kept in primitive arrays that
+// are updated in place.  They are discarded by "bind", and allocated
+// either there or, for state that is only needed for some settings,
+// by the first update that needs them, as "Sgd" does for its velocity.
+//
+
+
+public abstract class Optimizer {
+
+    public double learningRate;           // step size
+    public double weightDecay;            // weight decay coefficient
+    public long steps;                    // number of updates applied
+    public int size;                      // number of parameters bound
+
+    // Constructor with the learning rate and weight decay specified ...
+    public Optimizer(double learningRate, double weightDecay) {
+	this.learningRate = learningRate;
+	this.weightDecay = weightDecay;
+	this.steps = 0;
+	this.size = -1;
+    }
+
+    // bind -- Prepare the state for a parameter array of the given size,
+    // discarding any existing state.
+    public void bind(int size) {
+	this.size = size;
+	this.steps = 0;
+	allocate(size);
+    }
+
+    // allocate -- Allocate and clear the per-parameter state arrays.
+    protected abstract void allocate(int size);
+
+    // update -- Update the given parameters in place, using the given
+    // accumulated deltas.  The optimizer is bound to the size of the
+    // parameter array on first use.  Return false on error.
+    public boolean update(double[] params, double[] deltas) {
+	if (size < 0)
+	    bind(params.length);
+	if ((params.length != size) || (deltas.length != size))
+	    return (false);
+	steps++;
+	apply(params, deltas);
+	return (true);
+    }
+
+    // apply -- Update the parameters, given that "steps" has already been
+    // incremented for this update.
+    protected abstract void apply(double[] params, double[] deltas);
+
+
+}
@@ -0,0 +1,399 @@
+//
+// PatternStream
+//
+// This class implements a streaming source of training patterns for
+// datasets that are too large to hold in memory as "Vector" objects.
+// Patterns are stored in a binary file (see "Writer") holding, for each
+// pattern, its input values followed by its target values, as
+// little-endian doubles.  The file is read through a sequence of
+// read-only memory mappings ("chunks"), so files larger than 2 GB are
+// supported and only the pages in use are resident.
+//
+// A background thread decodes patterns from the file, shuffles them
+// within a bounded window (each decoded pattern replaces a randomly
+// chosen pattern in the window, which is emitted), and packs them into
+// batches.  Batches are preallocated and recycled:  the consumer takes a
+// full batch with "next" and hands it back with "recycle", so no storage
+// is allocated once the stream is running.  Up to "prefetch" batches are
+// decoded ahead of the consumer.  Each stream makes a single pass over the
+// file (one epoch); open the file again for the next epoch, with a
+// different seed for a different order.
+//
+// The layout of a version 1 pattern file is:
+//
+//   header:   int magic ("LPAT"), int version, long pattern count,
+//             int input size, int target size
+//   patterns: for each pattern, its inputs and then its targets, as doubles
+//
+
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+
+public class PatternStream implements Closeable {
+
+    static public final int magic = 0x5441504C;   // "LPAT", little-endian
+    static public final int version = 1;
+    static final int headerSize = 24;
+    static final long chunkBytes = 64L << 20;     // bytes per mapping
+
+    // Batch -- A group of patterns, with reusable storage.
+    static public class Batch {
+	public int count;                 // number of patterns in the batch
+	public double[][] inputs;         // input values of each pattern
+	public double[][] targets;        // target values of each pattern
+
+	Batch(int size, int inputN, int targetN) {
+	    this.count = 0;
+	    this.inputs = new double[size][inputN];
+	    this.targets = new double[size][targetN];
+	}
+    }
+
+    public long patterns;                 // number of patterns in the file
+    public int inputN;                    // number of input values
+    public int targetN;                   // number of target values
+    private FileChannel channel;
+    private BlockingQueue<Batch> free;    // batches ready to be filled
+    private BlockingQueue<Batch> full;    // batches ready to be consumed
+    private Batch end;                    // marks the end of the stream
+    private Thread decoder;
+    private volatile boolean closed;
+    private volatile IOException failure;
+
+    // Constructor, used by "open" ...
+    private PatternStream() {
+    }
+
+    // open -- Open the named pattern file and start decoding it in the
+    // background, in batches of the given size, shuffling within a window
+    // of the given number of patterns (1 for no shuffling), with the given
+    // number of batches decoded ahead.  Return null on error.
+    static public PatternStream open(String filename, int batchSize,
+				     int window, int prefetch, long seed) {
+	if ((batchSize < 1) || (window < 1) || (prefetch < 1))
+	    return (null);
+	PatternStream s = new PatternStream();
+	try {
+	    s.channel = FileChannel.open(Paths.get(filename),
+					 StandardOpenOption.READ);
+	    ByteBuffer head = ByteBuffer.allocate(headerSize)
+		.order(ByteOrder.LITTLE_ENDIAN);
+	    while (head.hasRemaining() && (s.channel.read(head) >= 0))
+		;
+	    head.flip();
+	    if ((head.remaining() < headerSize)
+		|| (head.getInt(0) != magic) || (head.getInt(4) != version)) {
+		s.channel.close();
+		return (null);
+	    }
+	    s.patterns = head.getLong(8);
+	    s.inputN = head.getInt(16);
+	    s.targetN = head.getInt(20);
+	    long record = 8L * (s.inputN + s.targetN);
+	    if ((s.patterns < 0) || (s.inputN < 0) || (s.targetN < 0)
+		|| (record == 0) || (record > chunkBytes)
+		|| (headerSize + (s.patterns * record) > s.channel.size())) {
+		s.channel.close();
+		return (null);
+	    }
+	} catch (IOException e) {
+	    return (null);
+	}
+	s.free = new ArrayBlockingQueue<Batch>(prefetch + 1);
+	s.full = new ArrayBlockingQueue<Batch>(prefetch + 2);
+	for (int b = 0; b <= prefetch; b++)
+	    s.free.add(new Batch(batchSize, s.inputN, s.targetN));
+	s.end = new Batch(0, 0, 0);
+	final int w = (int) Math.min(window, Math.max(1, s.patterns));
+	final long rngSeed = seed;
+	s.decoder = new Thread(new Runnable() {
+		public void run() {
+		    s.decode(w, rngSeed);
+		}
+	    }, "PatternStream");
+	s.decoder.setDaemon(true);
+	s.decoder.start();
+	return (s);
+    }
+
+    // decode -- Read every pattern in the file, shuffle it through the
+    // window, and pass the resulting batches to the consumer.  This runs
+    // on the background thread.
+    private void decode(int window, long seed) {
+	Random rand = new Random(seed);
+	int width = inputN + targetN;
+	double[][] slots = new double[window][width];
+	int filled = 0;
+	Batch batch = null;
+	long record = 8L * width;
+	long perChunk = chunkBytes / record;
+	try {
+	    for (long first = 0; (first < patterns) && !closed;
+		 first += perChunk) {
+		long count = Math.min(perChunk, patterns - first);
+		DoubleBuffer chunk = channel
+		    .map(FileChannel.MapMode.READ_ONLY,
+			 headerSize + (first * record), count * record)
+		    .order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+		for (long i = 0; (i < count) && !closed; i++) {
+		    if (filled < window) {
+			// Still filling the shuffle window ...
+			chunk.get(slots[filled++]);
+			continue;
+		    }
+		    // Emit a random pattern from the window and replace it
+		    // with the newly read one ...
+		    int j = rand.nextInt(window);
+		    batch = emit(batch, slots[j]);
+		    chunk.get(slots[j]);
+		}
+	    }
+	    // Drain the window in random order ...
+	    while ((filled > 0) && !closed) {
+		int j = rand.nextInt(filled);
+		batch = emit(batch, slots[j]);
+		double[] t = slots[j];
+		slots[j] = slots[filled - 1];
+		slots[filled - 1] = t;
+		filled--;
+	    }
+	    if ((batch != null) && (batch.count > 0))
+		full.put(batch);
+	} catch (IOException e) {
+	    failure = e;
+	} catch (InterruptedException e) {
+	    // The stream was closed ...
+	}
+	// Once the stream is closed, nothing may take from the queue, so the
+	// end marker is only offered, never waited for ...
+	if (closed) {
+	    full.offer(end);
+	    return;
+	}
+	try {
+	    full.put(end);
+	} catch (InterruptedException e) {
+	    // The stream was closed ...
+	    full.offer(end);
+	}
+    }
+
+    // emit -- Add the given pattern to the given batch, passing the batch
+    // on once it is full and taking a free one.  Return the current batch.
+    private Batch emit(Batch batch, double[] pattern)
+	throws InterruptedException {
+	if (batch == null) {
+	    batch = free.take();
+	    batch.count = 0;
+	}
+	System.arraycopy(pattern, 0, batch.inputs[batch.count], 0, inputN);
+	System.arraycopy(pattern, inputN, batch.targets[batch.count], 0,
+			 targetN);
+	batch.count++;
+	if (batch.count == batch.inputs.length) {
+	    full.put(batch);
+	    batch = null;
+	}
+	return (batch);
+    }
+
+    // next -- Return the next batch of patterns, waiting for it to be
+    // decoded if necessary, or null once every pattern has been returned.
+    // The batch should be handed back with "recycle" once it is used.
+    public Batch next() {
+	if (closed)
+	    return (null);
+	try {
+	    Batch b = full.take();
+	    if (b == end) {
+		// Leave the marker for any later calls ...
+		full.put(end);
+		return (null);
+	    }
+	    return (b);
+	} catch (InterruptedException e) {
+	    Thread.currentThread().interrupt();
+	    return (null);
+	}
+    }
+
+    // recycle -- Hand back a batch returned by "next", so that its storage
+    // can be reused.
+    public void recycle(Batch b) {
+	if (b != null)
+	    free.offer(b);
+    }
+
+    // failed -- Return the error that ended the stream early, or null if
+    // there was none.
+    public IOException failed() {
+	return (failure);
+    }
+
+    // close -- Stop the background thread and close the file.
+    public void close() throws IOException {
+	closed = true;
+	decoder.interrupt();
+	channel.close();
+    }
+
+    // train -- Run one epoch of training over the rest of this stream,
+    // updating the parameters of the given plan after each batch.  If the
+    // plan is being observed, each step and the epoch are reported.
+    // Return the number of patterns presented, or -1 on error.
+    public long train(Plan plan, double learningRate) {
+	return (train(plan, learningRate, null));
+    }
+
+    // train -- Run one epoch of training over the rest of this stream, as
+    // above, updating the parameters with the given optimizer, if any,
+    // rather than with the learning rate.
+    public long train(Plan plan, double learningRate, Optimizer opt) {
+	boolean observed = plan.observed();
+	long epochStart = System.nanoTime();
+	long presented = 0;
+	double loss = 0.0;
+	Batch b;
+	while ((b = next()) != null) {
+	    long start = 0;
+	    long before = 0;
+	    double error = 0.0;
+	    if (observed) {
+		start = System.nanoTime();
+		before = TrainingMetrics.allocatedBytes();
+	    }
+	    plan.clearDeltas();
+	    for (int i = 0; i < b.count; i++) {
+		if (!plan.forward(b.inputs[i]) || !plan.backward(b.targets[i])) {
+		    recycle(b);
+		    return (-1);
+		}
+		if (observed)
+		    error += plan.lastError;
+	    }
+	    if (opt == null)
+		plan.update(learningRate);
+	    else if (!plan.update(opt)) {
+		recycle(b);
+		return (-1);
+	    }
+	    presented += b.count;
+	    if (observed) {
+		loss += error;
+		long after = TrainingMetrics.allocatedBytes();
+		if (plan.listener != null)
+		    plan.listener.step(b.count, error, System.nanoTime() - start,
+				       (before < 0) ? -1 : (after - before));
+	    }
+	    recycle(b);
+	}
+	if (failure != null)
+	    return (-1);
+	plan.epochs++;
+	if (observed) {
+	    long nanos = System.nanoTime() - epochStart;
+	    double mean = (presented > 0) ? (loss / presented) : 0.0;
+	    EpochEvent event = new EpochEvent();
+	    if (event.shouldCommit()) {
+		event.epoch = plan.epochs;
+		event.patterns = presented;
+		event.loss = mean;
+		event.patternsPerSecond = presented * 1.0e9 / nanos;
+		event.commit();
+	    }
+	    if (plan.listener != null)
+		plan.listener.epoch(plan.epochs, presented, mean, nanos);
+	}
+	return (presented);
+    }
+
+    // Writer -- Writes a pattern file, one pattern at a time.
+    static public class Writer implements Closeable {
+	private FileChannel channel;
+	private ByteBuffer buf;
+	private long count;
+	private int inputN;
+	private int targetN;
+
+	// Constructor with the file name and pattern sizes specified ...
+	public Writer(String filename, int inputN, int targetN)
+	    throws IOException {
+	    this.channel = FileChannel.open(Paths.get(filename),
+					    StandardOpenOption.CREATE,
+					    StandardOpenOption.TRUNCATE_EXISTING,
+					    StandardOpenOption.WRITE);
+	    this.inputN = inputN;
+	    this.targetN = targetN;
+	    this.count = 0;
+	    this.buf = ByteBuffer.allocate(1 << 16)
+		.order(ByteOrder.LITTLE_ENDIAN);
+	    // The header is rewritten with the final count on closing ...
+	    writeHeader();
+	}
+
+	private void writeHeader() throws IOException {
+	    ByteBuffer head = ByteBuffer.allocate(headerSize)
+		.order(ByteOrder.LITTLE_ENDIAN);
+	    head.putInt(magic).putInt(version).putLong(count);
+	    head.putInt(inputN).putInt(targetN);
+	    head.flip();
+	    channel.write(head, 0);
+	    if (channel.position() < headerSize)
+		channel.position(headerSize);
+	}
+
+	// add -- Append one pattern to the file.  Return false if the
+	// pattern does not have the expected sizes.
+	public boolean add(Vector input, Vector target) throws IOException {
+	    if ((input.dim() != inputN) || (target.dim() != targetN))
+		return (false);
+	    for (int i = 0; i < inputN; i++)
+		put(input.get(i));
+	    for (int i = 0; i < targetN; i++)
+		put(target.get(i));
+	    count++;
+	    return (true);
+	}
+
+	// add -- Append one pattern to the file.  Return false if the
+	// pattern does not have the expected sizes.
+	public boolean add(double[] input, double[] target)
+	    throws IOException {
+	    if ((input.length != inputN) || (target.length != targetN))
+		return (false);
+	    for (int i = 0; i < inputN; i++)
+		put(input[i]);
+	    for (int i = 0; i < targetN; i++)
+		put(target[i]);
+	    count++;
+	    return (true);
+	}
+
+	private void put(double x) throws IOException {
+	    if (buf.remaining() < 8)
+		flush();
+	    buf.putDouble(x);
+	}
+
+	private void flush() throws IOException {
+	    buf.flip();
+	    while (buf.hasRemaining())
+		channel.write(buf);
+	    buf.clear();
+	}
+
+	public void close() throws IOException {
+	    flush();
+	    writeHeader();
+	    channel.close();
+	}
+    }
+
+
+}
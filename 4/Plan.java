@@ -0,0 +1,607 @@
+//
+// Plan
+//
+// This class implements a compiled execution plan for a network of "Layer"
+// and "Projection" objects.  Compiling a network sorts its layers so that
+// every layer follows the layers that send projections to it, and then
+// flattens the network into arrays:  the bias weights and weight matrices
+// of all layers and projections are stored contiguously in "params", with
+// their accumulated deltas in "paramDeltas", and the activation and delta
+// values of all units are stored contiguously in "acts" and "deltas".
+// The projections into and out of each layer are listed in index arrays,
+// so the forward and backward passes are tight loops over arrays, without
+// iterating over projection lists or allocating vectors.
+//
+// The plan holds its own copy of the parameters.  Use "load" to copy the
+// parameters of the original "Layer" and "Projection" objects into the
+// plan (this is done once, by "compile"), and "store" to copy them back.
+// Layers with no input projections in the network are input layers, and
+// layers with no output projections in the network are output layers.
+// Input and target values are supplied in the order in which those layers
+// appear in "order".  As with "Layer", weight deltas are accumulated in the
+// direction that reduces the error, prior to the application of the
+// learning rate.
+//
+// Sparse input patterns may be presented to a plan with a single input
+// layer, as a "SparseVector", in which case the input projections cost
+// time in proportion to the number of nonzero inputs.  Projections may
+// also be pruned, with "prune", after which their weights are stored in
+// compressed sparse row (CSR) form, packed at the start of their section
+// of "params", and only the remaining weights are used and trained.
+//
+// Training can be observed by setting "listener", and through the
+// "LayerEvent" and "EpochEvent" Java Flight Recorder events, either of
+// which may be enabled alone.  When none is in use, the only cost is one
+// check per pass.
+//
+
+
+import java.util.*;
+
+
+public class Plan {
+
+    public Layer[] order;                 // layers, in order of evaluation
+    public Projection[] projs;            // projections, by receiving layer
+    public int layers;                    // number of layers
+    public int projections;               // number of projections
+    public int[] n;                       // size of each layer
+    public double[] min;                  // minimum activation of each layer
+    public double[] max;                  // maximum activation of each layer
+    public SigmoidTable[] table;          // squashing table of each layer
+    public int[] actAt;                   // offset of each layer in "acts"
+    public int[] biasAt;                  // offset of bias weights in "params"
+    public int[] weightAt;                // offset of weights in "params"
+    public int[] from;                    // sending layer of each projection
+    public int[] to;                      // receiving layer of each projection
+    public int[] inStart;                 // first projection into each layer
+    public int[] inEnd;                   // end of projections into layer
+    public int[] outList;                 // projections, by sending layer
+    public int[] outStart;                // first entry of "outList" for layer
+    public int[] outEnd;                  // end of entries for each layer
+    public int[] inputLayers;             // layers with no input projections
+    public int[] outputLayers;            // layers with no output projections
+    public int[] outputIndex;             // position in "outputLayers", or -1
+    public double[] params;               // all bias weights and weights
+    public double[] paramDeltas;          // accumulated parameter deltas
+    public double[] acts;                 // activation levels of all units
+    public double[] deltas;               // delta values of all units
+    private double[] errs;                // back-propagated error of all units
+    private Kernels k;                    // numerical kernels
+    public TrainingListener listener;     // optional training observer
+    public double lastError;              // sum squared error, if observed
+    public int epochs;                    // epochs of training completed
+    private double[][] single = new double[1][];  // avoids varargs arrays
+    public int[][] rowStart;              // CSR row starts, or null if dense
+    public int[][] colIndex;              // CSR column numbers of weights
+    private SparseVector sparseIn;        // latest sparse input pattern
+    private int sparseLayer = -1;         // layer holding "sparseIn", or -1
+    private Optimizer optimizer;          // latest optimizer, or null
+
+    // Constructor, used by "compile" ...
+    private Plan() {
+	this.k = Kernels.get();
+    }
+
+    // compile -- Build an execution plan for the network made up of the
+    // given layers, considering only projections between those layers, and
+    // load its parameters.  Return null if the network contains a cycle or
+    // an invalid layer.
+    static public Plan compile(Layer... net) {
+	int count = net.length;
+	// Count the projections into each layer from within the network ...
+	int[] waiting = new int[count];
+	for (int l = 0; l < count; l++) {
+	    if (net[l].n <= 0)
+		return (null);
+	    for (Projection p : net[l].inputs) {
+		if (InferenceNet.indexOf(net, p.input) >= 0)
+		    waiting[l]++;
+	    }
+	}
+	// Topologically sort the layers, keeping the given order among
+	// layers that are ready at the same time ...
+	Layer[] order = new Layer[count];
+	boolean[] placed = new boolean[count];
+	for (int done = 0; done < count; done++) {
+	    int next = -1;
+	    for (int l = 0; l < count; l++) {
+		if (!placed[l] && (waiting[l] == 0)) {
+		    next = l;
+		    break;
+		}
+	    }
+	    if (next < 0)
+		// Every remaining layer waits on another, so there is a cycle
+		return (null);
+	    placed[next] = true;
+	    order[done] = net[next];
+	    for (int l = 0; l < count; l++) {
+		for (Projection p : net[l].inputs) {
+		    if (p.input == net[next])
+			waiting[l]--;
+		}
+	    }
+	}
+	Plan plan = new Plan();
+	plan.build(order);
+	plan.load();
+	return (plan);
+    }
+
+    // build -- Lay out the arrays of this plan for the given layers, which
+    // are already in order of evaluation.
+    private void build(Layer[] order) {
+	this.order = order;
+	layers = order.length;
+	n = new int[layers];
+	min = new double[layers];
+	max = new double[layers];
+	table = new SigmoidTable[layers];
+	actAt = new int[layers];
+	biasAt = new int[layers];
+	inStart = new int[layers];
+	inEnd = new int[layers];
+	List<Projection> ps = new ArrayList<Projection>();
+	List<Integer> senders = new ArrayList<Integer>();
+	List<Integer> receivers = new ArrayList<Integer>();
+	int units = 0;
+	int size = 0;
+	for (int l = 0; l < layers; l++) {
+	    Layer layer = order[l];
+	    n[l] = layer.n;
+	    min[l] = layer.min;
+	    max[l] = layer.max;
+	    table[l] = layer.squashTable;
+	    actAt[l] = units;
+	    units += layer.n;
+	    biasAt[l] = size;
+	    size += layer.n;
+	    inStart[l] = ps.size();
+	    for (Projection p : layer.inputs) {
+		int s = InferenceNet.indexOf(order, p.input);
+		if (s >= 0) {
+		    ps.add(p);
+		    senders.add(s);
+		    receivers.add(l);
+		}
+	    }
+	    inEnd[l] = ps.size();
+	}
+	projections = ps.size();
+	projs = ps.toArray(new Projection[projections]);
+	from = new int[projections];
+	to = new int[projections];
+	weightAt = new int[projections];
+	int[] fanOut = new int[layers];
+	for (int p = 0; p < projections; p++) {
+	    from[p] = senders.get(p);
+	    to[p] = receivers.get(p);
+	    weightAt[p] = size;
+	    size += projs[p].inputN * projs[p].outputN;
+	    fanOut[from[p]]++;
+	}
+	// List the projections out of each layer ...
+	outList = new int[projections];
+	outStart = new int[layers];
+	outEnd = new int[layers];
+	int at = 0;
+	for (int l = 0; l < layers; l++) {
+	    outStart[l] = at;
+	    outEnd[l] = at;
+	    at += fanOut[l];
+	}
+	for (int p = 0; p < projections; p++)
+	    outList[outEnd[from[p]]++] = p;
+	// Find the input and output layers ...
+	int inputs = 0;
+	int outputs = 0;
+	for (int l = 0; l < layers; l++) {
+	    if (inStart[l] == inEnd[l])
+		inputs++;
+	    else if (outStart[l] == outEnd[l])
+		outputs++;
+	}
+	inputLayers = new int[inputs];
+	outputLayers = new int[outputs];
+	outputIndex = new int[layers];
+	inputs = 0;
+	outputs = 0;
+	for (int l = 0; l < layers; l++) {
+	    outputIndex[l] = -1;
+	    if (inStart[l] == inEnd[l]) {
+		inputLayers[inputs++] = l;
+	    } else if (outStart[l] == outEnd[l]) {
+		outputIndex[l] = outputs;
+		outputLayers[outputs++] = l;
+	    }
+	}
+	rowStart = new int[projections][];
+	colIndex = new int[projections][];
+	params = new double[size];
+	paramDeltas = new double[size];
+	acts = new double[units];
+	deltas = new double[units];
+	errs = new double[units];
+    }
+
+    // indexOfLayer -- Return the position of the given layer in the order
+    // of evaluation, or -1 if it is not part of this plan.
+    public int indexOfLayer(Layer layer) {
+	return (InferenceNet.indexOf(order, layer));
+    }
+
+    // load -- Copy the bias weights and projection weights of the original
+    // layers and projections into this plan.
+    public void load() {
+	for (int l = 0; l < layers; l++) {
+	    for (int i = 0; i < n[l]; i++)
+		params[biasAt[l] + i] = order[l].bias.get(i);
+	}
+	for (int p = 0; p < projections; p++) {
+	    Projection proj = projs[p];
+	    int at = weightAt[p];
+	    if (rowStart[p] != null) {
+		// Only the weights kept by pruning are loaded ...
+		for (int i = 0; i < proj.outputN; i++)
+		    for (int e = rowStart[p][i]; e < rowStart[p][i + 1]; e++)
+			params[at + e] = proj.W.get(i, colIndex[p][e]);
+		continue;
+	    }
+	    for (int i = 0; i < proj.outputN; i++)
+		for (int j = 0; j < proj.inputN; j++)
+		    params[at++] = proj.W.get(i, j);
+	}
+    }
+
+    // store -- Copy the bias weights and projection weights of this plan
+    // back into the original layers and projections.
+    public void store() {
+	for (int l = 0; l < layers; l++) {
+	    for (int i = 0; i < n[l]; i++)
+		order[l].bias.set(i, params[biasAt[l] + i]);
+	}
+	for (int p = 0; p < projections; p++) {
+	    Projection proj = projs[p];
+	    int at = weightAt[p];
+	    if (rowStart[p] != null) {
+		// Pruned weights are stored as zeros ...
+		for (int i = 0; i < proj.outputN; i++) {
+		    for (int j = 0; j < proj.inputN; j++)
+			proj.W.set(i, j, 0.0);
+		    for (int e = rowStart[p][i]; e < rowStart[p][i + 1]; e++)
+			proj.W.set(i, colIndex[p][e], params[at + e]);
+		}
+		continue;
+	    }
+	    for (int i = 0; i < proj.outputN; i++)
+		for (int j = 0; j < proj.inputN; j++)
+		    proj.W.set(i, j, params[at++]);
+	}
+    }
+
+    // prune -- Remove every weight whose magnitude is less than the given
+    // threshold from every projection, storing the remaining weights of
+    // each projection in CSR form.  Pruned weights stay at zero from then
+    // on.  The accumulated parameter deltas are cleared.  Since the kept
+    // weights move within "params", the state of the optimizer last given
+    // to "update" no longer lines up with them, so it is rebound (cleared).
+    // Return the number of weights that remain.
+    public int prune(double threshold) {
+	int kept = 0;
+	clearDeltas();
+	if (optimizer != null)
+	    optimizer.bind(params.length);
+	for (int p = 0; p < projections; p++) {
+	    int rows = n[to[p]];
+	    int cols = n[from[p]];
+	    int at = weightAt[p];
+	    double[] dense = new double[rows * cols];
+	    if (rowStart[p] == null) {
+		System.arraycopy(params, at, dense, 0, rows * cols);
+	    } else {
+		for (int i = 0; i < rows; i++)
+		    for (int e = rowStart[p][i]; e < rowStart[p][i + 1]; e++)
+			dense[(i * cols) + colIndex[p][e]] = params[at + e];
+	    }
+	    int[] starts = new int[rows + 1];
+	    int count = 0;
+	    for (int i = 0; i < rows * cols; i++) {
+		if (Math.abs(dense[i]) >= threshold)
+		    count++;
+	    }
+	    int[] columns = new int[count];
+	    Arrays.fill(params, at, at + (rows * cols), 0.0);
+	    int e = 0;
+	    for (int i = 0; i < rows; i++) {
+		starts[i] = e;
+		for (int j = 0; j < cols; j++) {
+		    double w = dense[(i * cols) + j];
+		    if (Math.abs(w) >= threshold) {
+			columns[e] = j;
+			params[at + e] = w;
+			e++;
+		    }
+		}
+	    }
+	    starts[rows] = e;
+	    rowStart[p] = starts;
+	    colIndex[p] = columns;
+	    kept += count;
+	}
+	return (kept);
+    }
+
+    // forward -- Load the given values into the only input layer and
+    // compute the activation values of every other layer.  Return false on
+    // error.
+    public boolean forward(double[] input) {
+	single[0] = input;
+	boolean ok = forward(single);
+	single[0] = null;
+	return (ok);
+    }
+
+    // forward -- Load the given sparse pattern into the only input layer
+    // and compute the activation values of every other layer.  Return false
+    // on error.
+    public boolean forward(SparseVector input) {
+	if (inputLayers.length != 1)
+	    return (false);
+	int l = inputLayers[0];
+	if (input.dim != n[l])
+	    return (false);
+	int at = actAt[l];
+	// Keep the dense activations of the input layer up to date, at a
+	// cost proportional to the number of nonzero inputs ...
+	if (sparseLayer == l) {
+	    for (int e = 0; e < sparseIn.nnz; e++)
+		acts[at + sparseIn.index[e]] = 0.0;
+	} else {
+	    Arrays.fill(acts, at, at + n[l], 0.0);
+	    if (sparseIn == null)
+		sparseIn = new SparseVector(n[l]);
+	}
+	sparseIn.copy(input);
+	for (int e = 0; e < sparseIn.nnz; e++)
+	    acts[at + sparseIn.index[e]] = sparseIn.value[e];
+	sparseLayer = l;
+	computeActivations();
+	return (true);
+    }
+
+    // forward -- Load the given values into the input layers, in order,
+    // and compute the activation values of every other layer.  Return
+    // false on error.
+    public boolean forward(double[]... inputs) {
+	if (inputs.length != inputLayers.length)
+	    return (false);
+	for (int i = 0; i < inputLayers.length; i++) {
+	    int l = inputLayers[i];
+	    if (inputs[i].length != n[l])
+		return (false);
+	    System.arraycopy(inputs[i], 0, acts, actAt[l], n[l]);
+	}
+	sparseLayer = -1;
+	computeActivations();
+	return (true);
+    }
+
+    // computeActivations -- Compute the activation values of every layer
+    // other than the input layers.
+    private void computeActivations() {
+	boolean observed = observed();
+	for (int l = 0; l < layers; l++) {
+	    if (inStart[l] != inEnd[l]) {
+		if (observed)
+		    observeActivation(l);
+		else
+		    computeActivation(l);
+	    }
+	}
+    }
+
+    // observed -- Return true if training is being observed, either by a
+    // listener or by a flight recording.
+    boolean observed() {
+	return ((listener != null) || LayerEvent.type.isEnabled()
+		|| EpochEvent.type.isEnabled());
+    }
+
+    // observeActivation -- Calculate the activation values of the units in
+    // the given layer, reporting the time taken.
+    private void observeActivation(int l) {
+	LayerEvent event = new LayerEvent();
+	event.begin();
+	long start = System.nanoTime();
+	computeActivation(l);
+	long nanos = System.nanoTime() - start;
+	event.end();
+	if (event.shouldCommit()) {
+	    event.layer = l;
+	    event.units = n[l];
+	    event.phase = "forward";
+	    event.commit();
+	}
+	if (listener != null)
+	    listener.forward(l, nanos);
+    }
+
+    // computeActivation -- Calculate the activation values of the units in
+    // the given layer, using "acts" to hold net inputs in the meantime.
+    void computeActivation(int l) {
+	int at = actAt[l];
+	System.arraycopy(params, biasAt[l], acts, at, n[l]);
+	for (int p = inStart[l]; p < inEnd[l]; p++) {
+	    int s = from[p];
+	    if (rowStart[p] != null)
+		k.csrMatVec(params, weightAt[p], rowStart[p], colIndex[p],
+			    n[l], acts, actAt[s], acts, at);
+	    else if (s == sparseLayer)
+		k.sparseMatVec(params, weightAt[p], n[l], n[s],
+			       sparseIn.index, sparseIn.value, sparseIn.nnz,
+			       acts, at);
+	    else
+		k.matVec(params, weightAt[p], n[l], n[s], acts, actAt[s],
+			 acts, at);
+	}
+	k.squash(acts, at, acts, at, n[l], min[l], max[l], table[l]);
+    }
+
+    // output -- Copy the activation values of the given output layer,
+    // numbered in the order of "outputLayers", into the given array,
+    // returning it.  A new array is allocated if none is given.
+    public double[] output(int o, double[] dest) {
+	int l = outputLayers[o];
+	if (dest == null)
+	    dest = new double[n[l]];
+	System.arraycopy(acts, actAt[l], dest, 0, n[l]);
+	return (dest);
+    }
+
+    // backward -- Compute the delta values of every output and hidden
+    // layer from the given target values for the only output layer, and
+    // increment the parameter deltas.  Return false on error.
+    public boolean backward(double[] target) {
+	single[0] = target;
+	boolean ok = backward(single);
+	single[0] = null;
+	return (ok);
+    }
+
+    // backward -- Compute the delta values of every output and hidden
+    // layer from the given target values for the output layers, in order,
+    // and increment the parameter deltas.  The "forward" pass must have
+    // been computed first.  Return false on error.
+    public boolean backward(double[]... targets) {
+	if (targets.length != outputLayers.length)
+	    return (false);
+	for (int o = 0; o < outputLayers.length; o++) {
+	    if (targets[o].length != n[outputLayers[o]])
+		return (false);
+	}
+	boolean observed = observed();
+	if (observed)
+	    lastError = 0.0;
+	for (int l = layers - 1; l >= 0; l--) {
+	    if (inStart[l] != inEnd[l]) {
+		if (observed)
+		    observeBackward(l, targets);
+		else
+		    computeBackward(l, targets);
+	    }
+	}
+	return (true);
+    }
+
+    // computeBackward -- Calculate the delta values of the units in the
+    // given output or hidden layer, and increment the deltas of its bias
+    // weights and of the weights of the projections into it.  Every layer
+    // that it projects to must already have been processed.
+    void computeBackward(int l, double[][] targets) {
+	if (outputIndex[l] >= 0)
+	    k.outputDelta(targets[outputIndex[l]], 0, acts, actAt[l],
+			  deltas, actAt[l], n[l], min[l], max[l]);
+	else
+	    computeHiddenDelta(l);
+	incrementDeltas(l);
+    }
+
+    // observeBackward -- Process the given layer as for "computeBackward",
+    // reporting the time taken, the error, and the sizes of the deltas.
+    private void observeBackward(int l, double[][] targets) {
+	LayerEvent event = new LayerEvent();
+	event.begin();
+	long start = System.nanoTime();
+	computeBackward(l, targets);
+	long nanos = System.nanoTime() - start;
+	event.end();
+	int at = actAt[l];
+	if (outputIndex[l] >= 0) {
+	    double[] t = targets[outputIndex[l]];
+	    for (int i = 0; i < n[l]; i++) {
+		double e = t[i] - acts[at + i];
+		lastError += e * e;
+	    }
+	}
+	double deltaNorm = norm(deltas, at, n[l]);
+	double biasDeltaNorm = norm(paramDeltas, biasAt[l], n[l]);
+	if (event.shouldCommit()) {
+	    event.layer = l;
+	    event.units = n[l];
+	    event.phase = "backward";
+	    event.deltaNorm = deltaNorm;
+	    event.commit();
+	}
+	if (listener != null)
+	    listener.backward(l, nanos, deltaNorm, biasDeltaNorm);
+    }
+
+    // norm -- Return the Euclidean norm of the "count" values stored in the
+    // given array from the given offset.
+    static double norm(double[] a, int off, int count) {
+	double sum = 0.0;
+	for (int i = off; i < off + count; i++)
+	    sum += a[i] * a[i];
+	return (Math.sqrt(sum));
+    }
+
+    // computeHiddenDelta -- Calculate the delta values of the units in the
+    // given hidden layer from the deltas of the layers that it projects to.
+    void computeHiddenDelta(int l) {
+	int at = actAt[l];
+	Arrays.fill(errs, at, at + n[l], 0.0);
+	for (int e = outStart[l]; e < outEnd[l]; e++) {
+	    int p = outList[e];
+	    int r = to[p];
+	    if (rowStart[p] != null)
+		k.csrMatTransVec(params, weightAt[p], rowStart[p], colIndex[p],
+				 n[r], deltas, actAt[r], errs, at);
+	    else
+		k.matTransVec(params, weightAt[p], n[r], n[l], deltas,
+			      actAt[r], errs, at);
+	}
+	k.hiddenDelta(errs, at, acts, at, deltas, at, n[l], min[l], max[l]);
+    }
+
+    // incrementDeltas -- Add the changes called for by the current delta
+    // values of the given layer to the accumulated deltas of its bias
+    // weights and of the weights of the projections into it.
+    void incrementDeltas(int l) {
+	k.axpy(1.0, deltas, actAt[l], paramDeltas, biasAt[l], n[l]);
+	for (int p = inStart[l]; p < inEnd[l]; p++) {
+	    int s = from[p];
+	    if (rowStart[p] != null)
+		k.csrRankOne(paramDeltas, weightAt[p], rowStart[p], colIndex[p],
+			     n[l], deltas, actAt[l], acts, actAt[s]);
+	    else if (s == sparseLayer)
+		k.sparseRankOne(paramDeltas, weightAt[p], n[l], n[s], deltas,
+				actAt[l], sparseIn.index, sparseIn.value,
+				sparseIn.nnz);
+	    else
+		k.rankOne(paramDeltas, weightAt[p], n[l], n[s], deltas,
+			  actAt[l], acts, actAt[s]);
+	}
+    }
+
+    // clearDeltas -- Set all accumulated parameter deltas to zero.
+    public void clearDeltas() {
+	Arrays.fill(paramDeltas, 0.0);
+    }
+
+    // update -- Update all bias weights and weights by the accumulated
+    // parameter deltas, scaled by the learning rate.
+    public void update(double learningRate) {
+	k.axpy(learningRate, paramDeltas, 0, params, 0, params.length);
+    }
+
+    // update -- Update all bias weights and weights from the accumulated
+    // parameter deltas using the given optimizer, which should be used for
+    // this plan alone.  Return false on error.
+    public boolean update(Optimizer opt) {
+	optimizer = opt;
+	return (opt.update(params, paramDeltas));
+    }
+
+
+}
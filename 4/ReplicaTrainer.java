@@ -0,0 +1,283 @@
+//
+// ReplicaTrainer
+//
+// This class implements data-parallel training of a network of "Layer"
+// objects by several JVM processes on one machine, each training a
+// replica of the network on its own shard of a pattern file and
+// periodically averaging parameters with the others through a
+// "SharedAverage" file.  Each process has its own heap and collector, so
+// the work of training and its garbage are spread over processes.
+//
+// The launcher builds a network with one hidden layer sized to the
+// pattern file, saves its initial parameters as a "Checkpoint", divides
+// the patterns round-robin into equally sized shard files, creates the
+// averaging file, and starts one worker process per shard, passing on
+// its own class path and JVM options.  Each worker compiles the network
+// into a "Plan", trains it on its shard for the given number of epochs,
+// averaging every "period" batches and once more at the end, and exits.
+// The launcher then collects the averaged parameters, saves them in the
+// output checkpoint, removes the shard and averaging files, and reports
+// the error over the whole pattern file.
+// Since the shards are equally sized, every worker averages the same
+// number of times, as synchronous mode requires.
+//
+// Usage:  java ReplicaTrainer <patterns> <hidden units> <workers>
+//                             <sync | async> <epochs> <period>
+//                             <learning rate> <output checkpoint>
+//
+
+
+import java.io.*;
+import java.lang.management.*;
+import java.util.*;
+
+
+public class ReplicaTrainer {
+
+    static public int batchSize = 32;     // patterns per parameter update
+    static public long seed = 1;          // seed for shuffling patterns
+
+    // build -- Return a randomly initialized network with one hidden layer
+    // of the given size, between input and output layers of the given
+    // sizes.
+    static Layer[] build(int inputN, int hiddenN, int targetN) {
+	Layer input = new Layer(inputN);
+	Layer hidden = new Layer(hiddenN);
+	Layer output = new Layer(targetN);
+	Projection p = new Projection(inputN, hiddenN);
+	p.W.randomize(-0.5, 0.5);
+	input.addOutputProjection(p);
+	hidden.addInputProjection(p);
+	Projection q = new Projection(hiddenN, targetN);
+	q.W.randomize(-0.5, 0.5);
+	hidden.addOutputProjection(q);
+	output.addInputProjection(q);
+	hidden.randomizeBiases(-0.1, 0.1);
+	output.randomizeBiases(-0.1, 0.1);
+	return (new Layer[] { input, hidden, output });
+    }
+
+    // shard -- Divide the named pattern file round-robin into the given
+    // number of equally sized shard files, named by appending ".shard"
+    // and the shard number to the given prefix, dropping any remainder.
+    // Return false on error.
+    static boolean shard(String filename, int workers, String prefix) {
+	PatternStream in = PatternStream.open(filename, 256, 1, 2, seed);
+	if (in == null)
+	    return (false);
+	long each = in.patterns / workers;
+	PatternStream.Writer[] out = new PatternStream.Writer[workers];
+	try {
+	    for (int w = 0; w < workers; w++)
+		out[w] = new PatternStream.Writer(prefix + ".shard" + w,
+						  in.inputN, in.targetN);
+	    long count = 0;
+	    PatternStream.Batch b;
+	    while ((b = in.next()) != null) {
+		for (int i = 0; i < b.count; i++, count++) {
+		    if (count < each * workers)
+			out[(int) (count % workers)].add(b.inputs[i],
+							  b.targets[i]);
+		}
+		in.recycle(b);
+	    }
+	    for (int w = 0; w < workers; w++)
+		out[w].close();
+	    in.close();
+	    return (in.failed() == null);
+	} catch (IOException e) {
+	    return (false);
+	}
+    }
+
+    // error -- Return the mean over the patterns in the named file of the
+    // sum squared error of the given plan, or -1 on error.
+    static double error(Plan plan, String filename) {
+	PatternStream in = PatternStream.open(filename, 256, 1, 2, seed);
+	if (in == null)
+	    return (-1.0);
+	double[] out = null;
+	double error = 0.0;
+	long count = 0;
+	PatternStream.Batch b;
+	while ((b = in.next()) != null) {
+	    for (int i = 0; i < b.count; i++, count++) {
+		plan.forward(b.inputs[i]);
+		out = plan.output(0, out);
+		for (int j = 0; j < out.length; j++) {
+		    double e = b.targets[i][j] - out[j];
+		    error += e * e;
+		}
+	    }
+	    in.recycle(b);
+	}
+	try {
+	    in.close();
+	} catch (IOException e) {
+	    return (-1.0);
+	}
+	return ((count > 0) ? (error / count) : 0.0);
+    }
+
+    // work -- Train a replica of the network in the named checkpoint on
+    // the given shard, averaging through the named file.  Return false on
+    // error.
+    static boolean work(String prefix, int rank, boolean synchronous,
+			int epochs, int period, double rate) {
+	Checkpoint c = Checkpoint.open(prefix);
+	SharedAverage avg = SharedAverage.open(prefix + ".avg", rank);
+	if ((c == null) || (avg == null))
+	    return (false);
+	Plan plan = Plan.compile(c.toLayers());
+	if ((plan == null) || (plan.params.length != avg.size))
+	    return (false);
+	avg.synchronous = synchronous;
+	String shard = prefix + ".shard" + rank;
+	long batches = 0;
+	long start = System.nanoTime();
+	for (int epoch = 0; epoch < epochs; epoch++) {
+	    PatternStream in = PatternStream.open(shard, batchSize, 1024, 2,
+						  seed + (epoch * 7919L) + rank);
+	    if (in == null)
+		return (false);
+	    PatternStream.Batch b;
+	    while ((b = in.next()) != null) {
+		plan.clearDeltas();
+		for (int i = 0; i < b.count; i++) {
+		    if (!plan.forward(b.inputs[i])
+			|| !plan.backward(b.targets[i])) {
+			in.recycle(b);
+			return (false);
+		    }
+		}
+		plan.update(rate);
+		in.recycle(b);
+		if ((++batches % period == 0) && !avg.average(plan.params))
+		    return (false);
+	    }
+	    try {
+		in.close();
+	    } catch (IOException e) {
+		return (false);
+	    }
+	    if (in.failed() != null)
+		return (false);
+	}
+	if (!avg.average(plan.params))
+	    return (false);
+	// One line at a time, since the workers share the console ...
+	System.out.println(String.format("worker %d:  %d batches, "
+					 + "%d averages, %.1f s, "
+					 + "%.1f s waiting, %d stale, "
+					 + "shard error %.4f",
+					 rank, batches, avg.generation,
+					 (System.nanoTime() - start) / 1e9,
+					 avg.waitNanos / 1e9, avg.stale,
+					 error(plan, shard)));
+	try {
+	    avg.close();
+	} catch (IOException e) {
+	    return (false);
+	}
+	return (true);
+    }
+
+    // launch -- Start the given number of worker processes, passing on
+    // the class path and JVM options of this process, and wait for them
+    // all.  Return false if any of them fails.
+    static boolean launch(int workers, String... args) {
+	String java = System.getProperty("java.home") + File.separator + "bin"
+	    + File.separator + "java";
+	List<Process> procs = new ArrayList<Process>();
+	try {
+	    for (int w = 0; w < workers; w++) {
+		List<String> cmd = new ArrayList<String>();
+		cmd.add(java);
+		cmd.addAll(ManagementFactory.getRuntimeMXBean()
+			   .getInputArguments());
+		cmd.add("-cp");
+		cmd.add(System.getProperty("java.class.path"));
+		cmd.add("ReplicaTrainer");
+		cmd.add("worker");
+		cmd.add(Integer.toString(w));
+		cmd.addAll(Arrays.asList(args));
+		procs.add(new ProcessBuilder(cmd).inheritIO().start());
+	    }
+	    boolean ok = true;
+	    for (Process p : procs)
+		ok &= (p.waitFor() == 0);
+	    return (ok);
+	} catch (IOException | InterruptedException e) {
+	    for (Process p : procs)
+		p.destroy();
+	    return (false);
+	}
+    }
+
+    // fail -- Report an error and exit.
+    static void fail(String message) {
+	System.err.println("ReplicaTrainer:  " + message);
+	System.exit(1);
+    }
+
+    public static void main(String[] args) {
+	if ((args.length == 7) && args[0].equals("worker")) {
+	    // worker <rank> <prefix> <sync | async> <epochs> <period> <rate>
+	    if (!work(args[2], Integer.parseInt(args[1]),
+		      args[3].equals("sync"), Integer.parseInt(args[4]),
+		      Integer.parseInt(args[5]), Double.parseDouble(args[6])))
+		fail("worker " + args[1] + " failed");
+	    return;
+	}
+	if ((args.length < 8)
+	    || !(args[3].equals("sync") || args[3].equals("async"))) {
+	    System.err.println("Usage:  java ReplicaTrainer <patterns> "
+			       + "<hidden units> <workers> <sync | async> "
+			       + "<epochs> <period> <learning rate> "
+			       + "<output checkpoint>");
+	    System.exit(1);
+	}
+	String patterns = args[0];
+	int hiddenN = Integer.parseInt(args[1]);
+	int workers = Integer.parseInt(args[2]);
+	String output = args[7];
+	PatternStream probe = PatternStream.open(patterns, 1, 1, 1, seed);
+	if (probe == null)
+	    fail("cannot read " + patterns);
+	Layer[] net = build(probe.inputN, hiddenN, probe.targetN);
+	try {
+	    probe.close();
+	} catch (IOException e) {
+	    fail("cannot read " + patterns);
+	}
+	Plan plan = Plan.compile(net);
+	if (!Checkpoint.save(net, output)
+	    || !shard(patterns, workers, output)
+	    || !SharedAverage.create(output + ".avg", workers,
+				     plan.params.length))
+	    fail("cannot write " + output);
+	System.out.printf("initial error %.4f%n", error(plan, patterns));
+	long start = System.nanoTime();
+	if (!launch(workers, output, args[3], args[4], args[5], args[6]))
+	    fail("training failed");
+	double seconds = (System.nanoTime() - start) / 1e9;
+	SharedAverage avg = SharedAverage.open(output + ".avg", 0);
+	if ((avg == null) || (avg.collect(plan.params) != workers))
+	    fail("cannot collect parameters from " + output + ".avg");
+	try {
+	    avg.close();
+	} catch (IOException e) {
+	    fail("cannot close " + output + ".avg");
+	}
+	new File(output + ".avg").delete();
+	for (int w = 0; w < workers; w++)
+	    new File(output + ".shard" + w).delete();
+	plan.store();
+	if (!Checkpoint.save(net, output))
+	    fail("cannot write " + output);
+	System.out.printf("%d %s workers:  %.1f s, final error %.4f%n",
+			  workers, args[3], seconds, error(plan, patterns));
+    }
+
+
+}
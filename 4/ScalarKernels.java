@@ -0,0 +1,125 @@
+//
+// ScalarKernels
+//
+// This class implements the "Layer" numerical kernels using plain loops
+// over arrays.  It is always available, and it serves as the reference
+// against which other kernel implementations are checked.
+//
+
+
+public class ScalarKernels extends Kernels {
+
+    public String name() {
+	return ("scalar");
+    }
+
+    public void matVec(double[] w, int wOff, int rows, int cols,
+		       double[] x, int xOff, double[] y, int yOff) {
+	for (int i = 0; i < rows; i++) {
+	    int row = wOff + (i * cols);
+	    double sum = 0.0;
+	    for (int j = 0; j < cols; j++)
+		sum += w[row + j] * x[xOff + j];
+	    y[yOff + i] += sum;
+	}
+    }
+
+    public void matTransVec(double[] w, int wOff, int rows, int cols,
+			    double[] x, int xOff, double[] y, int yOff) {
+	for (int i = 0; i < rows; i++) {
+	    int row = wOff + (i * cols);
+	    double xi = x[xOff + i];
+	    for (int j = 0; j < cols; j++)
+		y[yOff + j] += w[row + j] * xi;
+	}
+    }
+
+    public void rankOne(double[] g, int gOff, int rows, int cols,
+			double[] d, int dOff, double[] x, int xOff) {
+	for (int i = 0; i < rows; i++) {
+	    int row = gOff + (i * cols);
+	    double di = d[dOff + i];
+	    for (int j = 0; j < cols; j++)
+		g[row + j] += di * x[xOff + j];
+	}
+    }
+
+    public void axpy(double alpha, double[] x, int xOff,
+		     double[] y, int yOff, int n) {
+	for (int i = 0; i < n; i++)
+	    y[yOff + i] += alpha * x[xOff + i];
+    }
+
+    public void squash(double[] net, int netOff, double[] act, int actOff,
+		       int n, double min, double max, SigmoidTable table) {
+	double range = max - min;
+	for (int i = 0; i < n; i++) {
+	    double x = net[netOff + i];
+	    if (table == null)
+		act[actOff + i] = min + range / (1.0 + Math.exp(-x));
+	    else
+		act[actOff + i] = min + range * table.logistic(x);
+	}
+    }
+
+    public void squashDerivative(double[] net, double[] der, int n,
+				 double min, double max) {
+	double range = max - min;
+	for (int i = 0; i < n; i++) {
+	    double s = 1.0 / (1.0 + Math.exp(-net[i]));
+	    der[i] = range * s * (1.0 - s);
+	}
+    }
+
+    public void multiply(double[] x, double[] y, double[] out, int n) {
+	for (int i = 0; i < n; i++)
+	    out[i] = x[i] * y[i];
+    }
+
+    public void activate(double[] bias, double[][] w, double[][] x,
+			 int[] cols, int count,
+			 double[] net, double[] act, int n,
+			 double min, double max, SigmoidTable table) {
+	double range = max - min;
+	for (int i = 0; i < n; i++) {
+	    double sum = bias[i];
+	    for (int p = 0; p < count; p++) {
+		double[] wp = w[p];
+		double[] xp = x[p];
+		int width = cols[p];
+		int row = i * width;
+		for (int j = 0; j < width; j++)
+		    sum += wp[row + j] * xp[j];
+	    }
+	    net[i] = sum;
+	    if (table == null)
+		act[i] = min + range / (1.0 + Math.exp(-sum));
+	    else
+		act[i] = min + range * table.logistic(sum);
+	}
+    }
+
+    public void outputDelta(double[] targ, int targOff, double[] act,
+			    int actOff, double[] delta, int deltaOff, int n,
+			    double min, double max) {
+	double scale = 1.0 / (max - min);
+	for (int i = 0; i < n; i++) {
+	    double a = act[actOff + i];
+	    delta[deltaOff + i] =
+		(targ[targOff + i] - a) * (a - min) * (max - a) * scale;
+	}
+    }
+
+    public void hiddenDelta(double[] err, int errOff, double[] act,
+			    int actOff, double[] delta, int deltaOff, int n,
+			    double min, double max) {
+	double scale = 1.0 / (max - min);
+	for (int i = 0; i < n; i++) {
+	    double a = act[actOff + i];
+	    delta[deltaOff + i] =
+		err[errOff + i] * (a - min) * (max - a) * scale;
+	}
+    }
+
+
+}
@@ -0,0 +1,57 @@
+//
+// Sgd
+//
+// This class implements stochastic gradient descent with optional
+// momentum, either classical or Nesterov, and optional L2 weight decay.
+// With no momentum and no weight decay, it reproduces the plain update
+// performed by "Layer.updateBiases".  The velocity of each parameter is
+// kept in an array allocated by the first update that uses momentum, so
+// "momentum" may be set after the optimizer is bound.
+//
+
+
+public class Sgd extends Optimizer {
+
+    public double momentum;               // velocity retention, in [0, 1)
+    public boolean nesterov;              // use Nesterov momentum
+    private double[] velocity;            // velocity of each parameter
+
+    // Constructor with the learning rate specified ...
+    public Sgd(double learningRate) {
+	this(learningRate, 0.0, false, 0.0);
+    }
+
+    // Constructor with every setting specified ...
+    public Sgd(double learningRate, double momentum, boolean nesterov,
+	       double weightDecay) {
+	super(learningRate, weightDecay);
+	this.momentum = momentum;
+	this.nesterov = nesterov;
+	this.velocity = null;
+    }
+
+    protected void allocate(int size) {
+	velocity = null;
+    }
+
+    protected void apply(double[] params, double[] deltas) {
+	double lr = learningRate;
+	double wd = weightDecay;
+	double mu = momentum;
+	if (mu == 0.0) {
+	    for (int i = 0; i < size; i++)
+		params[i] += lr * (deltas[i] - (wd * params[i]));
+	    return;
+	}
+	if (velocity == null)
+	    velocity = new double[size];
+	for (int i = 0; i < size; i++) {
+	    double d = deltas[i] - (wd * params[i]);
+	    double v = (mu * velocity[i]) + d;
+	    velocity[i] = v;
+	    params[i] += lr * (nesterov ? (d + (mu * v)) : v);
+	}
+    }
+
+
+}
@@ -0,0 +1,289 @@
+//
+// SharedAverage
+//
+// This class implements parameter averaging between the replicas of a
+// network being trained by several processes on one machine, through a
+// memory-mapped file that every process maps read-write.  Each replica
+// ("worker") owns one slot of the file, holding a generation counter and
+// two buffers of parameters.  To publish, a worker writes its parameters
+// into the buffer chosen by its next generation number and then
+// increments its generation with release semantics, so a reader that
+// sees the new generation also sees the parameters behind it.  While one
+// buffer is being written, the other still holds the previous generation,
+// complete, for any worker that is reading it.
+//
+// In synchronous mode, "average" publishes the caller's parameters and
+// waits until every worker has published the same generation, and then
+// replaces the caller's parameters with the mean of all of them.  Every
+// worker sums the buffers in the same order, so all replicas leave with
+// identical parameters; a worker cannot get two generations ahead of a
+// slower one, so the buffer being read is never overwritten.  Every
+// worker must call "average" the same number of times.
+//
+// In asynchronous mode, "average" publishes the caller's parameters and
+// mixes them with the latest parameters published by the other workers,
+// without waiting.  A worker may be writing its next generation while
+// another reads its latest one, so each read is validated by checking the
+// generation again afterwards, and a buffer that may have been reused in
+// the meantime is skipped ("stale") rather than waited for.  For this
+// check to be sound, a writer fences between publishing one generation
+// and starting to write the buffer of the next but one.
+//
+// The layout of a version 1 averaging file is:
+//
+//   header:  int magic ("LAVG"), int version, int workers,
+//            int parameter count, padded to 64 bytes
+//   slots:   for each worker:  long generation, padded to 64 bytes,
+//            then two buffers of parameters, as doubles
+//
+// All values are stored little-endian.
+//
+
+
+import java.io.*;
+import java.lang.invoke.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.locks.LockSupport;
+
+
+public class SharedAverage implements Closeable {
+
+    static public final int magic = 0x4756414C;   // "LAVG", little-endian
+    static public final int version = 1;
+    static final int headerSize = 64;
+    static final int counterSize = 64;
+
+    // Access to the generation counters, with memory ordering ...
+    static final VarHandle counter =
+	MethodHandles.byteBufferViewVarHandle(long[].class,
+					      ByteOrder.LITTLE_ENDIAN);
+
+    public int workers;                   // number of workers
+    public int size;                      // number of parameters
+    public int rank;                      // slot of this worker
+    public boolean synchronous;           // wait for every worker
+    public long timeoutNanos;             // longest wait, in synchronous mode
+    public long generation;               // generations published
+    public long waitNanos;                // time spent waiting
+    public long stale;                    // buffers skipped as stale
+    private FileChannel channel;
+    private MappedByteBuffer data;
+    private DoubleBuffer[][] buffers;     // two parameter buffers per slot
+    private double[] sum;                 // running sum of parameters
+    private double[] copy;                // validated copy of one buffer
+
+    // Constructor, used by "open" ...
+    private SharedAverage() {
+    }
+
+    // slotSize -- Return the number of bytes in each slot of a file for
+    // the given number of parameters.
+    static long slotSize(int size) {
+	return (counterSize + (16L * size));
+    }
+
+    // create -- Create the named averaging file for the given number of
+    // workers and parameters, with every generation zero.  Return false
+    // on error.
+    static public boolean create(String filename, int workers, int size) {
+	if ((workers < 1) || (size < 1))
+	    return (false);
+	long length = headerSize + (workers * slotSize(size));
+	if (length > Integer.MAX_VALUE)
+	    return (false);
+	try (FileChannel ch = FileChannel.open(Paths.get(filename),
+					       StandardOpenOption.CREATE,
+					       StandardOpenOption.TRUNCATE_EXISTING,
+					       StandardOpenOption.READ,
+					       StandardOpenOption.WRITE)) {
+	    MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_WRITE,
+					  0, length);
+	    buf.order(ByteOrder.LITTLE_ENDIAN);
+	    buf.putInt(magic).putInt(version);
+	    buf.putInt(workers).putInt(size);
+	    buf.force();
+	    return (true);
+	} catch (IOException e) {
+	    return (false);
+	}
+    }
+
+    // open -- Map the named averaging file, as the worker with the given
+    // rank.  Return null on error.
+    static public SharedAverage open(String filename, int rank) {
+	SharedAverage a = new SharedAverage();
+	try {
+	    a.channel = FileChannel.open(Paths.get(filename),
+					 StandardOpenOption.READ,
+					 StandardOpenOption.WRITE);
+	    long length = a.channel.size();
+	    if ((length < headerSize) || (length > Integer.MAX_VALUE)) {
+		a.channel.close();
+		return (null);
+	    }
+	    a.data = a.channel.map(FileChannel.MapMode.READ_WRITE, 0, length);
+	    a.data.order(ByteOrder.LITTLE_ENDIAN);
+	    a.workers = a.data.getInt(8);
+	    a.size = a.data.getInt(12);
+	    if ((a.data.getInt(0) != magic) || (a.data.getInt(4) != version)
+		|| (a.workers < 1) || (a.size < 1)
+		|| (rank < 0) || (rank >= a.workers)
+		|| (headerSize + (a.workers * slotSize(a.size)) > length)) {
+		a.channel.close();
+		return (null);
+	    }
+	} catch (IOException e) {
+	    return (null);
+	}
+	a.rank = rank;
+	a.synchronous = true;
+	a.timeoutNanos = 60L * 1000000000L;
+	a.generation = a.published(rank);
+	a.buffers = new DoubleBuffer[a.workers][2];
+	for (int w = 0; w < a.workers; w++) {
+	    for (int b = 0; b < 2; b++) {
+		ByteBuffer d = a.data.duplicate();
+		int at = (int) (a.slotAt(w) + counterSize + (8L * a.size * b));
+		d.position(at);
+		d.limit(at + (8 * a.size));
+		a.buffers[w][b] = d.slice().order(ByteOrder.LITTLE_ENDIAN)
+		    .asDoubleBuffer();
+	    }
+	}
+	a.sum = new double[a.size];
+	a.copy = new double[a.size];
+	return (a);
+    }
+
+    // slotAt -- Return the byte offset of the slot of the given worker.
+    private long slotAt(int w) {
+	return (headerSize + (w * slotSize(size)));
+    }
+
+    // published -- Return the latest generation published by the given
+    // worker.
+    public long published(int w) {
+	return ((long) counter.getAcquire(data, (int) slotAt(w)));
+    }
+
+    // publish -- Write the given parameters as the next generation of
+    // this worker.  The buffer being written last held the generation
+    // before the current one, so the fence keeps these writes from being
+    // seen before the counter store that published the current one;
+    // otherwise a reader could copy a half-written buffer while the
+    // counter still shows the generation it expects.
+    private void publish(double[] params) {
+	long next = generation + 1;
+	DoubleBuffer b = buffers[rank][(int) (next & 1)];
+	b.clear();
+	VarHandle.storeStoreFence();
+	b.put(params, 0, size);
+	counter.setRelease(data, (int) slotAt(rank), next);
+	generation = next;
+    }
+
+    // average -- Publish the given parameters and replace them with their
+    // average over the workers, waiting for every worker in synchronous
+    // mode.  Return false on error, including a timeout.
+    public boolean average(double[] params) {
+	if (params.length != size)
+	    return (false);
+	publish(params);
+	if (synchronous)
+	    return (averageAll(params));
+	mixLatest(params);
+	return (true);
+    }
+
+    // averageAll -- Wait for every worker to publish the current
+    // generation, and then store the mean of their parameters.
+    private boolean averageAll(double[] params) {
+	long start = System.nanoTime();
+	for (int w = 0; w < workers; w++) {
+	    int spins = 0;
+	    while (published(w) < generation) {
+		if (System.nanoTime() - start > timeoutNanos)
+		    return (false);
+		if (spins++ < 100)
+		    Thread.onSpinWait();
+		else
+		    LockSupport.parkNanos(20000L);
+	    }
+	}
+	waitNanos += System.nanoTime() - start;
+	int b = (int) (generation & 1);
+	Arrays.fill(sum, 0.0);
+	for (int w = 0; w < workers; w++) {
+	    DoubleBuffer d = buffers[w][b];
+	    for (int i = 0; i < size; i++)
+		sum[i] += d.get(i);
+	}
+	for (int i = 0; i < size; i++)
+	    params[i] = sum[i] / workers;
+	return (true);
+    }
+
+    // mixLatest -- Replace the given parameters with their mean with the
+    // latest parameters of every other worker that has published any.
+    private void mixLatest(double[] params) {
+	System.arraycopy(params, 0, sum, 0, size);
+	int count = 1;
+	for (int w = 0; w < workers; w++) {
+	    if ((w != rank) && latest(w, copy)) {
+		for (int i = 0; i < size; i++)
+		    sum[i] += copy[i];
+		count++;
+	    }
+	}
+	for (int i = 0; i < size; i++)
+	    params[i] = sum[i] / count;
+    }
+
+    // latest -- Copy the latest parameters published by the given worker
+    // into the given array.  Return false if the worker has published
+    // none, or if they may have been overwritten during the copy.
+    private boolean latest(int w, double[] dest) {
+	long g = published(w);
+	if (g == 0)
+	    return (false);
+	DoubleBuffer d = buffers[w][(int) (g & 1)];
+	for (int i = 0; i < size; i++)
+	    dest[i] = d.get(i);
+	VarHandle.acquireFence();
+	if (published(w) != g) {
+	    stale++;
+	    return (false);
+	}
+	return (true);
+    }
+
+    // collect -- Store in the given array the mean of the latest
+    // parameters published by every worker that has published any, once
+    // training is over.  Return the number of workers included.
+    public int collect(double[] params) {
+	Arrays.fill(sum, 0.0);
+	int count = 0;
+	for (int w = 0; w < workers; w++) {
+	    if (latest(w, copy)) {
+		for (int i = 0; i < size; i++)
+		    sum[i] += copy[i];
+		count++;
+	    }
+	}
+	if (count > 0) {
+	    for (int i = 0; i < size; i++)
+		params[i] = sum[i] / count;
+	}
+	return (count);
+    }
+
+    // close -- Unmap the file, as far as Java allows, and close it.
+    public void close() throws IOException {
+	channel.close();
+    }
+
+
+}
@@ -0,0 +1,72 @@
+//
+// SigmoidTable
+//
+// This class implements a fast approximation of the logistic function,
+// 1 / (1 + exp(-x)), using linear interpolation between values stored in
+// a table.  The table is sized from a requested maximum absolute error.
+// Half of that error budget is given to interpolation:  the error of
+// linear interpolation with step "h" is at most (h * h / 8) times the
+// largest magnitude of the second derivative of the logistic function,
+// which is 1 / (6 * sqrt(3)).  The other half is given to the tails:
+// outside of the table range, plus or minus "limit", the function is
+// clamped to zero or one, which is in error by less than exp(-limit).
+// When the logistic function is rescaled to a [min, max] activation range,
+// the error bound is multiplied by (max - min).
+//
+
+
+public class SigmoidTable {
+
+    // Largest magnitude of the second derivative of the logistic function ...
+    static final double maxCurvature = 1.0 / (6.0 * Math.sqrt(3.0));
+
+    public double maxError;               // guaranteed absolute error bound
+    public double limit;                  // table covers [-limit, limit]
+    public double step;                   // spacing of table entries
+    private double scale;                 // one over "step"
+    private double[] table;               // logistic function samples
+
+    // Constructor with the maximum absolute error specified ...
+    public SigmoidTable(double maxError) {
+	if (!(maxError > 0.0) || (maxError >= 0.5))
+	    maxError = 1.0e-4;
+	this.maxError = maxError;
+	this.limit = Math.log(2.0 / maxError);
+	this.step = Math.sqrt(4.0 * maxError / maxCurvature);
+	int count = (int) Math.ceil(2.0 * limit / step);
+	// Shrink the step slightly so that the table ends exactly at the
+	// limit ...
+	this.step = 2.0 * limit / count;
+	this.scale = 1.0 / step;
+	this.table = new double[count + 2];
+	for (int i = 0; i <= count; i++)
+	    table[i] = 1.0 / (1.0 + Math.exp(-((i * step) - limit)));
+	table[count + 1] = table[count];
+    }
+
+    // size -- Return the number of entries in the table.
+    public int size() {
+	return (table.length);
+    }
+
+    // logistic -- Return the approximate value of the logistic function
+    // at the given point.
+    public double logistic(double x) {
+	if (x <= -limit)
+	    return (0.0);
+	if (x >= limit)
+	    return (1.0);
+	double pos = (x + limit) * scale;
+	int i = (int) pos;
+	double frac = pos - i;
+	return (table[i] + frac * (table[i + 1] - table[i]));
+    }
+
+    // squash -- Return the approximate activation value for the given net
+    // input, rescaled to the given activation range.
+    public double squash(double x, double min, double max) {
+	return (min + (max - min) * logistic(x));
+    }
+
+
+}
@@ -0,0 +1,97 @@
+//
+// SparseVector
+//
+// This class implements a sparse vector of values, storing only its
+// nonzero elements as parallel arrays of indices and values.  It is used
+// to present high-dimensional, mostly zero input patterns (e.g., one-hot
+// or bag-of-features codes) to a "Plan", so that the cost of the input
+// projections scales with the number of nonzero inputs rather than with
+// the number of input units.  Indices should be added in increasing order
+// and should not be repeated.  Storage grows as needed and is reused by
+// "clear".
+//
+
+
+public class SparseVector {
+
+    public int dim;                       // number of elements
+    public int nnz;                       // number of stored elements
+    public int[] index;                   // indices of stored elements
+    public double[] value;                // values of stored elements
+
+    // Constructor with the dimension and initial capacity specified ...
+    public SparseVector(int dim, int capacity) {
+	this.dim = dim;
+	this.nnz = 0;
+	this.index = new int[Math.max(1, capacity)];
+	this.value = new double[Math.max(1, capacity)];
+    }
+
+    // Constructor with the dimension specified ...
+    public SparseVector(int dim) {
+	this(dim, 16);
+    }
+
+    // clear -- Remove all stored elements, keeping the storage.
+    public void clear() {
+	nnz = 0;
+    }
+
+    // add -- Store the given value at the given index.  Return false if the
+    // index is out of range.
+    public boolean add(int i, double v) {
+	if ((i < 0) || (i >= dim))
+	    return (false);
+	if (nnz == index.length) {
+	    index = java.util.Arrays.copyOf(index, 2 * nnz);
+	    value = java.util.Arrays.copyOf(value, 2 * nnz);
+	}
+	index[nnz] = i;
+	value[nnz] = v;
+	nnz++;
+	return (true);
+    }
+
+    // copy -- Make this vector a copy of the given one, reusing storage
+    // where possible.
+    public void copy(SparseVector v) {
+	dim = v.dim;
+	nnz = 0;
+	for (int k = 0; k < v.nnz; k++)
+	    add(v.index[k], v.value[k]);
+    }
+
+    // fromDense -- Store the nonzero elements of the given array.
+    public void fromDense(double[] a) {
+	dim = a.length;
+	nnz = 0;
+	for (int i = 0; i < a.length; i++) {
+	    if (a[i] != 0.0)
+		add(i, a[i]);
+	}
+    }
+
+    // fromVector -- Store the nonzero elements of the given vector.
+    public void fromVector(Vector v) {
+	dim = v.dim();
+	nnz = 0;
+	for (int i = 0; i < dim; i++) {
+	    if (v.get(i) != 0.0)
+		add(i, v.get(i));
+	}
+    }
+
+    // toDense -- Copy this vector into the given array, which must have
+    // "dim" elements, returning it.  A new array is allocated if none is
+    // given.
+    public double[] toDense(double[] a) {
+	if (a == null)
+	    a = new double[dim];
+	java.util.Arrays.fill(a, 0, dim, 0.0);
+	for (int k = 0; k < nnz; k++)
+	    a[index[k]] = value[k];
+	return (a);
+    }
+
+
+}
@@ -0,0 +1,36 @@
+//
+// TrainingListener
+//
+// This interface is implemented by objects that observe the training of a
+// "Plan".  A listener is attached by setting "Plan.listener", or
+// "Layer.listener" for a layer that is trained through "Layer" itself, in
+// which case the bias delta norm given to "backward" is that of the deltas
+// accumulated before the pass.  Times are in nanoseconds.  The "step" and
+// "epoch" methods are called when training is driven by
+// "PatternStream.train".
+//
+
+
+public interface TrainingListener {
+
+    // forward -- The activation of the given layer was computed.
+    void forward(int layer, long nanos);
+
+    // backward -- The deltas of the given layer were computed and its
+    // parameter deltas incremented.  The norms of its unit deltas and of
+    // its accumulated bias deltas are given.
+    void backward(int layer, long nanos, double deltaNorm,
+		  double biasDeltaNorm);
+
+    // step -- A batch of patterns was presented and the parameters were
+    // updated, with the given sum squared error, taking the given time and
+    // allocating the given number of bytes on the training thread (-1 if
+    // unknown).
+    void step(int patterns, double error, long nanos, long allocated);
+
+    // epoch -- An epoch of training ended, with the given mean sum squared
+    // error per pattern.
+    void epoch(int epoch, long patterns, double loss, long nanos);
+
+
+}
@@ -0,0 +1,126 @@
+//
+// TrainingMetrics
+//
+// This class implements a "TrainingListener" that accumulates summary
+// statistics:  the total forward and backward time for each layer, the
+// most recent delta norms for each layer, the bytes allocated per step,
+// the training throughput, and the loss of each epoch.  A report can be
+// produced at any time.  Its methods are synchronized, so one instance can
+// observe several plans.
+//
+
+
+import java.lang.management.*;
+import java.util.*;
+
+
+public class TrainingMetrics implements TrainingListener {
+
+    public long[] forwardNanos = new long[0];     // by layer
+    public long[] backwardNanos = new long[0];    // by layer
+    public double[] deltaNorm = new double[0];    // latest, by layer
+    public double[] biasDeltaNorm = new double[0];// latest, by layer
+    public long steps;                    // batches presented
+    public long patterns;                 // patterns presented
+    public long stepNanos;                // time spent in steps
+    public long allocated;                // bytes allocated in steps
+    public List<Double> losses = new ArrayList<Double>();  // by epoch
+
+    // allocatedBytes -- Return the number of bytes allocated so far by the
+    // current thread, or -1 if the JVM does not report it.
+    static public long allocatedBytes() {
+	ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+	if (bean instanceof com.sun.management.ThreadMXBean) {
+	    return (((com.sun.management.ThreadMXBean) bean)
+		    .getThreadAllocatedBytes(Thread.currentThread().getId()));
+	}
+	return (-1);
+    }
+
+    // fit -- Grow the per-layer arrays to include the given layer.
+    private void fit(int layer) {
+	if (layer >= forwardNanos.length) {
+	    int size = layer + 1;
+	    forwardNanos = Arrays.copyOf(forwardNanos, size);
+	    backwardNanos = Arrays.copyOf(backwardNanos, size);
+	    deltaNorm = Arrays.copyOf(deltaNorm, size);
+	    biasDeltaNorm = Arrays.copyOf(biasDeltaNorm, size);
+	}
+    }
+
+    public synchronized void forward(int layer, long nanos) {
+	fit(layer);
+	forwardNanos[layer] += nanos;
+    }
+
+    public synchronized void backward(int layer, long nanos,
+				      double deltaNorm,
+				      double biasDeltaNorm) {
+	fit(layer);
+	backwardNanos[layer] += nanos;
+	this.deltaNorm[layer] = deltaNorm;
+	this.biasDeltaNorm[layer] = biasDeltaNorm;
+    }
+
+    public synchronized void step(int patterns, double error, long nanos,
+				  long allocated) {
+	steps++;
+	this.patterns += patterns;
+	stepNanos += nanos;
+	if (allocated > 0)
+	    this.allocated += allocated;
+    }
+
+    public synchronized void epoch(int epoch, long patterns, double loss,
+				   long nanos) {
+	losses.add(loss);
+    }
+
+    // patternsPerSecond -- Return the training throughput over all steps.
+    public synchronized double patternsPerSecond() {
+	return ((stepNanos > 0) ? (patterns * 1.0e9 / stepNanos) : 0.0);
+    }
+
+    // allocatedPerStep -- Return the mean bytes allocated per step.
+    public synchronized double allocatedPerStep() {
+	return ((steps > 0) ? ((double) allocated / steps) : 0.0);
+    }
+
+    // diverging -- Return true if the loss has grown for the given number
+    // of consecutive epochs, or has become infinite or not a number.
+    public synchronized boolean diverging(int epochs) {
+	int size = losses.size();
+	if ((size > 0) && !Double.isFinite(losses.get(size - 1)))
+	    return (true);
+	if (size <= epochs)
+	    return (false);
+	for (int e = size - epochs; e < size; e++) {
+	    if (!(losses.get(e) > losses.get(e - 1)))
+		return (false);
+	}
+	return (true);
+    }
+
+    // report -- Return a readable summary of the statistics.
+    public synchronized String report() {
+	StringBuilder sb = new StringBuilder();
+	sb.append(String.format("steps %d, patterns %d, %.1f patterns/s, "
+				+ "%.0f bytes/step%n",
+				steps, patterns, patternsPerSecond(),
+				allocatedPerStep()));
+	for (int l = 0; l < forwardNanos.length; l++) {
+	    sb.append(String.format("layer %d: forward %.3f ms, "
+				    + "backward %.3f ms, |delta| %.4g, "
+				    + "|biasDelta| %.4g%n",
+				    l, forwardNanos[l] / 1.0e6,
+				    backwardNanos[l] / 1.0e6,
+				    deltaNorm[l], biasDeltaNorm[l]));
+	}
+	for (int e = 0; e < losses.size(); e++)
+	    sb.append(String.format("epoch %d: loss %.6g%n",
+				    e + 1, losses.get(e)));
+	return (sb.toString());
+    }
+
+
+}
@@ -0,0 +1,182 @@
+//
+// VectorKernels
+//
+// This class implements the "Layer" numerical kernels using the incubating
+// Java Vector API, operating on as many doubles at once as the preferred
+// vector shape of the processor allows (e.g., eight with AVX-512).  Loop
+// tails shorter than one vector are handled with scalar code.  This class
+// must only be loaded when the "jdk.incubator.vector" module is present,
+// which is why "Kernels" instantiates it reflectively.
+//
+
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+
+public class VectorKernels extends Kernels {
+
+    static final VectorSpecies<Double> S = DoubleVector.SPECIES_PREFERRED;
+
+    public String name() {
+	return ("vector-" + S.vectorBitSize());
+    }
+
+    // dot -- Return the dot product of the "n" values stored in "a" from
+    // "aOff" and the "n" values stored in "b" from "bOff".
+    static double dot(double[] a, int aOff, double[] b, int bOff, int n) {
+	int bound = S.loopBound(n);
+	DoubleVector acc = DoubleVector.zero(S);
+	int j = 0;
+	for (; j < bound; j += S.length()) {
+	    DoubleVector av = DoubleVector.fromArray(S, a, aOff + j);
+	    DoubleVector bv = DoubleVector.fromArray(S, b, bOff + j);
+	    acc = av.fma(bv, acc);
+	}
+	double sum = acc.reduceLanes(VectorOperators.ADD);
+	for (; j < n; j++)
+	    sum += a[aOff + j] * b[bOff + j];
+	return (sum);
+    }
+
+    public void matVec(double[] w, int wOff, int rows, int cols,
+		       double[] x, int xOff, double[] y, int yOff) {
+	for (int i = 0; i < rows; i++)
+	    y[yOff + i] += dot(w, wOff + (i * cols), x, xOff, cols);
+    }
+
+    public void matTransVec(double[] w, int wOff, int rows, int cols,
+			    double[] x, int xOff, double[] y, int yOff) {
+	for (int i = 0; i < rows; i++)
+	    axpy(x[xOff + i], w, wOff + (i * cols), y, yOff, cols);
+    }
+
+    public void rankOne(double[] g, int gOff, int rows, int cols,
+			double[] d, int dOff, double[] x, int xOff) {
+	for (int i = 0; i < rows; i++)
+	    axpy(d[dOff + i], x, xOff, g, gOff + (i * cols), cols);
+    }
+
+    public void axpy(double alpha, double[] x, int xOff,
+		     double[] y, int yOff, int n) {
+	DoubleVector av = DoubleVector.broadcast(S, alpha);
+	int bound = S.loopBound(n);
+	int i = 0;
+	for (; i < bound; i += S.length()) {
+	    DoubleVector xv = DoubleVector.fromArray(S, x, xOff + i);
+	    DoubleVector yv = DoubleVector.fromArray(S, y, yOff + i);
+	    xv.fma(av, yv).intoArray(y, yOff + i);
+	}
+	for (; i < n; i++)
+	    y[yOff + i] += alpha * x[xOff + i];
+    }
+
+    public void squash(double[] net, int netOff, double[] act, int actOff,
+		       int n, double min, double max, SigmoidTable table) {
+	double range = max - min;
+	int i = 0;
+	if (table == null) {
+	    int bound = S.loopBound(n);
+	    for (; i < bound; i += S.length()) {
+		DoubleVector e = DoubleVector.fromArray(S, net, netOff + i)
+		    .neg().lanewise(VectorOperators.EXP);
+		DoubleVector.broadcast(S, range).div(e.add(1.0)).add(min)
+		    .intoArray(act, actOff + i);
+	    }
+	}
+	for (; i < n; i++) {
+	    double x = net[netOff + i];
+	    if (table == null)
+		act[actOff + i] = min + range / (1.0 + Math.exp(-x));
+	    else
+		act[actOff + i] = min + range * table.logistic(x);
+	}
+    }
+
+    public void squashDerivative(double[] net, double[] der, int n,
+				 double min, double max) {
+	double range = max - min;
+	int bound = S.loopBound(n);
+	int i = 0;
+	for (; i < bound; i += S.length()) {
+	    DoubleVector e = DoubleVector.fromArray(S, net, i)
+		.neg().lanewise(VectorOperators.EXP);
+	    DoubleVector s = DoubleVector.broadcast(S, 1.0).div(e.add(1.0));
+	    s.mul(s.neg().add(1.0)).mul(range).intoArray(der, i);
+	}
+	for (; i < n; i++) {
+	    double s = 1.0 / (1.0 + Math.exp(-net[i]));
+	    der[i] = range * s * (1.0 - s);
+	}
+    }
+
+    public void multiply(double[] x, double[] y, double[] out, int n) {
+	int bound = S.loopBound(n);
+	int i = 0;
+	for (; i < bound; i += S.length()) {
+	    DoubleVector xv = DoubleVector.fromArray(S, x, i);
+	    DoubleVector yv = DoubleVector.fromArray(S, y, i);
+	    xv.mul(yv).intoArray(out, i);
+	}
+	for (; i < n; i++)
+	    out[i] = x[i] * y[i];
+    }
+
+    public void activate(double[] bias, double[][] w, double[][] x,
+			 int[] cols, int count,
+			 double[] net, double[] act, int n,
+			 double min, double max, SigmoidTable table) {
+	double range = max - min;
+	for (int i = 0; i < n; i++) {
+	    double sum = bias[i];
+	    for (int p = 0; p < count; p++)
+		sum += dot(w[p], i * cols[p], x[p], 0, cols[p]);
+	    net[i] = sum;
+	    if (table == null)
+		act[i] = min + range / (1.0 + Math.exp(-sum));
+	    else
+		act[i] = min + range * table.logistic(sum);
+	}
+    }
+
+    public void outputDelta(double[] targ, int targOff, double[] act,
+			    int actOff, double[] delta, int deltaOff, int n,
+			    double min, double max) {
+	double scale = 1.0 / (max - min);
+	int bound = S.loopBound(n);
+	int i = 0;
+	for (; i < bound; i += S.length()) {
+	    DoubleVector a = DoubleVector.fromArray(S, act, actOff + i);
+	    DoubleVector t = DoubleVector.fromArray(S, targ, targOff + i);
+	    t.sub(a).mul(a.sub(min)).mul(a.neg().add(max)).mul(scale)
+		.intoArray(delta, deltaOff + i);
+	}
+	for (; i < n; i++) {
+	    double a = act[actOff + i];
+	    delta[deltaOff + i] =
+		(targ[targOff + i] - a) * (a - min) * (max - a) * scale;
+	}
+    }
+
+    public void hiddenDelta(double[] err, int errOff, double[] act,
+			    int actOff, double[] delta, int deltaOff, int n,
+			    double min, double max) {
+	double scale = 1.0 / (max - min);
+	int bound = S.loopBound(n);
+	int i = 0;
+	for (; i < bound; i += S.length()) {
+	    DoubleVector a = DoubleVector.fromArray(S, act, actOff + i);
+	    DoubleVector e = DoubleVector.fromArray(S, err, errOff + i);
+	    e.mul(a.sub(min)).mul(a.neg().add(max)).mul(scale)
+		.intoArray(delta, deltaOff + i);
+	}
+	for (; i < n; i++) {
+	    double a = act[actOff + i];
+	    delta[deltaOff + i] =
+		err[errOff + i] * (a - min) * (max - a) * scale;
+	}
+    }
+
+
+}